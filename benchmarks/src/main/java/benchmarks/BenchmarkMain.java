@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * class BenchmarkMain
+ * 
+ * Runs the JMH benchmarks, accepting the usual JMH command-line options. Unless a result file is
+ * given with -rff, the results are written as JSON to the project's results directory, named by
+ * the time of the run, so that runs can be compared to catch regressions.
+ * 
+ * @author wqian94
+ */
+public final class BenchmarkMain {
+    private static final DateTimeFormatter FILE_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("uuuuMMdd-HHmmss"); // Used for result file names.
+    
+    private BenchmarkMain() {
+        // Not instantiable.
+    }
+    
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args
+     *            JMH command-line options, e.g. a regular expression selecting the benchmarks.
+     * @throws Exception
+     *             if the options are invalid or the benchmarks fail to run.
+     */
+    public static void main(final String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final ChainedOptionsBuilder options =
+                new OptionsBuilder().parent(new CommandLineOptions(args));
+        if (!arguments.contains("-rff")) {
+            options.result(getResultFile().getPath());
+            if (!arguments.contains("-rf")) {
+                options.resultFormat(ResultFormatType.JSON);
+            }
+        }
+        new Runner(options.build()).run();
+    }
+    
+    /**
+     * Chooses the file to write the results to, in the results directory of the project, whether
+     * the benchmarks are run from the project or from the benchmarks module.
+     * 
+     * @return A File, the result file.
+     */
+    private static File getResultFile() {
+        final File results = new File("results").isDirectory() ? new File("results")
+                : new File("../results");
+        return new File(results,
+                "jmh-" + FILE_DATE_FORMATTER.format(LocalDateTime.now()) + ".json");
+    }
+}
@@ -0,0 +1,61 @@
+package client;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * class WebTestBenchmark
+ * 
+ * Measures the overhead that Web.test adds to a wait, using a stub driver so that no browser is
+ * involved. A condition that already holds shows the fixed cost of setting up a wait, and a
+ * condition that holds on a later poll shows how much the polling interval adds on top of the time
+ * the condition actually took to become true.
+ * 
+ * @author wqian94
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WebTestBenchmark {
+    @Param({ "0", "1", "3" })
+    public int pollsUntilTrue; // The number of polls that fail before the condition holds.
+    
+    private WebDriver driver; // A stub driver, which the conditions never actually use.
+    private int polls; // The number of polls so far in the current wait.
+    
+    /**
+     * Creates the stub driver.
+     */
+    @Setup
+    public void setUp() {
+        driver = (WebDriver) Proxy.newProxyInstance(WebTestBenchmark.class.getClassLoader(),
+                new Class<?>[] { WebDriver.class }, (proxy, method, args) -> null);
+    }
+    
+    /**
+     * Waits on a condition that holds after pollsUntilTrue failed polls.
+     * 
+     * @return An int, the number of polls taken, so that the wait is not eliminated.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int waitForCondition() {
+        polls = 0;
+        Web.test(driver, 10, (client) -> polls++ >= pollsUntilTrue);
+        return polls;
+    }
+}
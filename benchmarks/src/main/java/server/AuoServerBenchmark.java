@@ -0,0 +1,209 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class AuoServerBenchmark
+ * 
+ * Measures AuoServer.handle for each kind of target, with a mocked request and a response that
+ * discards its body, so that only the dispatch, caching, and response-writing paths are timed and
+ * not the network. The server serves a temporary directory holding an AuO.js and a static file
+ * that is held in the content cache. Large files are not covered: outside of Jetty, their
+ * memory-mapped contents would be copied through the mocked response instead of handed over.
+ * 
+ * @author wqian94
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuoServerBenchmark {
+    private static final int AUO_JS_BYTES = 128 * 1024; // About the size of AuO.js.
+    private static final int STATIC_FILE_BYTES = 16 * 1024; // A small stylesheet or image.
+    
+    @Param({ "/TEST", "/AuO.js", "/auo.js", "/style.css", "/missing.html" })
+    public String target; // The target to request.
+    
+    @Param({ "true", "false" })
+    public boolean gzip; // Whether the request accepts gzip.
+    
+    private File root; // The temporary directory being served.
+    private AuoServer server; // The server under test, with no Jetty server behind it.
+    private Request baseRequest; // The Jetty request, which only records whether it is handled.
+    private Map<String, Object> attributes; // Attributes of the mocked request.
+    private HttpServletRequest request; // The mocked request.
+    private HttpServletResponse response; // The mocked response.
+    
+    /**
+     * Creates the served directory, the server, and the mocked request and response.
+     * 
+     * @throws IOException
+     *             if the served directory cannot be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("auo-benchmark").toFile();
+        final char[] script = new char[AUO_JS_BYTES];
+        for (int i = 0; i < script.length; i++) { // Compressible, like real source code.
+            script[i] = "function AuO() { return this; }\n".charAt(i % 32);
+        }
+        Files.write(new File(root, "AuO.js").toPath(), new String(script).getBytes("UTF-8"));
+        final byte[] style = new byte[STATIC_FILE_BYTES];
+        Arrays.fill(style, (byte) 'a');
+        Files.write(new File(root, "style.css").toPath(), style);
+        
+        final String path = root.getPath() + File.separator;
+        server = AuoServer.createDetached(path,
+                new ContentCache(path, ContentCache.DEFAULT_BUDGET, false));
+        baseRequest = new Request(null, null);
+        attributes = new HashMap<>();
+        request = mockRequest(attributes, gzip ? "gzip, deflate" : null);
+        response = mockResponse();
+    }
+    
+    /**
+     * Terminates the server and deletes the served directory.
+     */
+    @TearDown
+    public void tearDown() {
+        server.terminate();
+        for (final File file : root.listFiles()) {
+            file.delete();
+        }
+        root.delete();
+    }
+    
+    /**
+     * Handles a single request for the target.
+     * 
+     * @return A boolean, whether the request was handled, so that the call is not eliminated.
+     * @throws Exception
+     *             if handling fails.
+     */
+    @Benchmark
+    public boolean handle() throws Exception {
+        attributes.clear(); // Each request starts with no attributes.
+        server.handle(target, baseRequest, request, response);
+        return baseRequest.isHandled();
+    }
+    
+    /**
+     * Creates a mocked request, which has attributes and an Accept-Encoding header, but nothing
+     * else.
+     * 
+     * @param attributes
+     *            the map to store the request's attributes in.
+     * @param acceptEncoding
+     *            the value of the Accept-Encoding header, or null for none.
+     * @return An HttpServletRequest.
+     */
+    private static HttpServletRequest mockRequest(final Map<String, Object> attributes,
+            final String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                AuoServerBenchmark.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get(args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        case "getHeader":
+                            return "Accept-Encoding".equalsIgnoreCase((String) args[0])
+                                    ? acceptEncoding : null;
+                        case "getMethod":
+                            return "GET";
+                        default:
+                            return null;
+                    }
+                });
+    }
+    
+    /**
+     * Creates a mocked response, which discards everything written to it.
+     * 
+     * @return An HttpServletResponse.
+     */
+    private static HttpServletResponse mockResponse() {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                // Discarded.
+            }
+            
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                // Discarded.
+            }
+            
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            
+            @Override
+            public void setWriteListener(final WriteListener listener) {
+                // Never blocks, so never needs to notify.
+            }
+        };
+        final PrintWriter writer = new PrintWriter(new Writer() {
+            @Override
+            public void write(final char[] cbuf, final int off, final int len) {
+                // Discarded.
+            }
+            
+            @Override
+            public void flush() {
+                // Nothing to flush.
+            }
+            
+            @Override
+            public void close() {
+                // Nothing to close.
+            }
+        });
+        
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                AuoServerBenchmark.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return out;
+                        case "getWriter":
+                            return writer;
+                        case "getStatus":
+                            return HttpServletResponse.SC_OK;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
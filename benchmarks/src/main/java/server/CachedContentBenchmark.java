@@ -0,0 +1,82 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class CachedContentBenchmark
+ * 
+ * Measures caching AuO.js, which reads the file and compresses a gzip copy of it. This runs
+ * whenever the file changes, so its cost bounds how quickly an edited AuO.js is served.
+ * 
+ * @author wqian94
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedContentBenchmark {
+    private static final String WORDS = "function var return this AuO audio buffer sample ";
+    
+    @Param({ "16384", "131072", "1048576" })
+    public int bytes; // The size of the file to cache.
+    
+    private File file; // The file to cache.
+    
+    /**
+     * Creates the file to cache, made of words so that it compresses like source code.
+     * 
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        final StringBuilder script = new StringBuilder(bytes);
+        while (script.length() < bytes) {
+            final int start = random.nextInt(WORDS.length() - 8);
+            script.append(WORDS, start, Math.min(WORDS.length(), start + 8));
+        }
+        script.setLength(bytes);
+        
+        file = File.createTempFile("auo-benchmark-", ".js");
+        Files.write(file.toPath(), script.toString().getBytes("UTF-8"));
+    }
+    
+    /**
+     * Deletes the file to cache.
+     */
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+    
+    /**
+     * Caches the file, as AuoServer does when AuO.js changes.
+     * 
+     * @return A CachedContent, so that the call is not eliminated.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    @Benchmark
+    public CachedContent cacheAuoJs() throws IOException {
+        return CachedContent.load(file, "application/javascript; charset=utf-8");
+    }
+}
@@ -0,0 +1,71 @@
+package server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class LogBenchmark
+ * 
+ * Measures the cost of a log entry to the caller: formatting the timestamp and the message, and
+ * writing the entry. Standard error is replaced with a stream that discards everything before Log
+ * is first used, so that the terminal's speed is not measured. The contended case logs from
+ * several threads at once, as the server and the test harness do.
+ * 
+ * @author wqian94
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+    private int counter; // Varies the arguments, so that formatting cannot be folded away.
+    
+    /**
+     * Discards standard error, before Log captures it.
+     */
+    @Setup
+    public void setUp() {
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+                // Discarded.
+            }
+            
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                // Discarded.
+            }
+        }));
+    }
+    
+    /**
+     * Logs an entry with a tag and arguments to format, from one thread.
+     */
+    @Benchmark
+    public void logFormatted() {
+        Log.log(Log.INFO, "Received save: %d bytes from %s", counter++, "localhost");
+    }
+    
+    /**
+     * Logs the same entry from four threads at once.
+     */
+    @Benchmark
+    @Threads(4)
+    public void logFormattedContended() {
+        Log.log(Log.INFO, "Received save: %d bytes from %s", 65536, "localhost");
+    }
+}
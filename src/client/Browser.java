@@ -3,10 +3,11 @@ package client;
 /**
  * enum Browser
  * 
- * Represents the list of emulate-able browsers.
+ * Represents the list of emulate-able browsers. HTMLUNIT runs in-process, without a real media
+ * stack, so it suits tests that only check the structure of the page.
  * 
  * @author wqian94
  */
 public enum Browser {
-    CHROME;
+    CHROME, HTMLUNIT;
 }
@@ -0,0 +1,200 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * class DomSnapshot
+ * 
+ * An immutable snapshot of the elements matching a set of CSS selectors, taken with a single
+ * script, so that checking the state of many elements costs one round trip to the browser instead
+ * of one per element and property. For each element, it records whether it is displayed and
+ * enabled, its visible text, and its size, as well as any other DOM properties asked for. Take one
+ * with Web.snapshot.
+ * 
+ * @author wqian94
+ */
+public final class DomSnapshot {
+    private static final String SCRIPT = String.join("\n",
+            "var selectors = arguments[0], properties = arguments[1], result = {};",
+            "selectors.forEach(function (selector) {",
+            "    var elements = Array.prototype.slice.call(document.querySelectorAll(selector));",
+            "    result[selector] = elements.map(function (element) {",
+            "        var rect = element.getBoundingClientRect();",
+            "        var displayed = element.getClientRects().length > 0",
+            "                && 'hidden' !== window.getComputedStyle(element).visibility;",
+            "        var values = {};",
+            "        properties.forEach(function (property) {",
+            "            var value = element[property];",
+            "            values[property] = null == value ? null : String(value);",
+            "        });",
+            "        return {",
+            "            displayed: displayed,",
+            "            enabled: !element.disabled,",
+            "            text: displayed ? (element.innerText || '').trim() : '',",
+            "            width: Math.round(rect.width),",
+            "            height: Math.round(rect.height),",
+            "            properties: values",
+            "        };",
+            "    });",
+            "});",
+            "return result;");
+    
+    private final Map<String, List<Element>> elements; // The elements matching each selector.
+    
+    /**
+     * The state of one element at the time of a snapshot.
+     */
+    public static final class Element {
+        private final boolean displayed; // Whether the element was displayed.
+        private final boolean enabled; // Whether the element was enabled.
+        private final String text; // The visible text of the element.
+        private final Dimension size; // The rendered size of the element.
+        private final Map<String, String> properties; // The other properties asked for.
+        
+        /**
+         * Creates a new Element from the state returned by the snapshot script.
+         * 
+         * @param state
+         *            the state of the element.
+         */
+        @SuppressWarnings("unchecked")
+        private Element(final Map<String, Object> state) {
+            this.displayed = Boolean.TRUE.equals(state.get("displayed"));
+            this.enabled = Boolean.TRUE.equals(state.get("enabled"));
+            this.text = String.valueOf(state.get("text"));
+            this.size = new Dimension(((Number) state.get("width")).intValue(),
+                    ((Number) state.get("height")).intValue());
+            final Object values = state.get("properties");
+            this.properties = null == values ? Collections.emptyMap()
+                    : Collections.unmodifiableMap(new HashMap<>((Map<String, String>) values));
+        }
+        
+        /**
+         * Produces whether the element was displayed, as for WebElement.isDisplayed.
+         * 
+         * @return A boolean, whether the element was displayed.
+         */
+        public boolean isDisplayed() {
+            return displayed;
+        }
+        
+        /**
+         * Produces whether the element was enabled, as for WebElement.isEnabled.
+         * 
+         * @return A boolean, whether the element was enabled.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        /**
+         * Produces the visible text of the element, as for WebElement.getText.
+         * 
+         * @return A String, the text of the element, or the empty string if it was not displayed.
+         */
+        public String getText() {
+            return text;
+        }
+        
+        /**
+         * Produces the rendered size of the element, as for WebElement.getSize.
+         * 
+         * @return A Dimension, the size of the element.
+         */
+        public Dimension getSize() {
+            return size;
+        }
+        
+        /**
+         * Produces one of the other DOM properties asked for when the snapshot was taken.
+         * 
+         * @param name
+         *            the name of the property, e.g. "title".
+         * @return A String, the value of the property, or null if it was null, undefined, or not
+         *         asked for.
+         */
+        public String getProperty(final String name) {
+            return properties.get(name);
+        }
+    }
+    
+    /**
+     * Creates a new DomSnapshot from the result of the snapshot script.
+     * 
+     * @param result
+     *            the elements matching each selector, as returned by the script.
+     */
+    @SuppressWarnings("unchecked")
+    private DomSnapshot(final Map<String, Object> result) {
+        final Map<String, List<Element>> elements = new LinkedHashMap<>();
+        for (final Map.Entry<String, Object> entry : result.entrySet()) {
+            final List<Element> states = new ArrayList<>();
+            for (final Object state : (List<Object>) entry.getValue()) {
+                states.add(new Element((Map<String, Object>) state));
+            }
+            elements.put(entry.getKey(), Collections.unmodifiableList(states));
+        }
+        this.elements = Collections.unmodifiableMap(elements);
+    }
+    
+    /**
+     * Takes a snapshot of the elements matching a set of selectors.
+     * 
+     * @param driver
+     *            the driver to take the snapshot in, which must be able to run scripts.
+     * @param selectors
+     *            the CSS selectors of the elements.
+     * @param properties
+     *            the names of any other DOM properties to record for each element.
+     * @return A DomSnapshot of the elements.
+     */
+    @SuppressWarnings("unchecked")
+    static DomSnapshot take(final WebDriver driver, final Collection<String> selectors,
+            final Collection<String> properties) {
+        if (!(driver instanceof JavascriptExecutor)) {
+            throw new IllegalArgumentException("Unable to run scripts in " + driver);
+        }
+        final Object result = ((JavascriptExecutor) driver).executeScript(SCRIPT,
+                new ArrayList<>(selectors), new ArrayList<>(properties));
+        return new DomSnapshot((Map<String, Object>) result);
+    }
+    
+    /**
+     * Produces the elements that matched a selector, in document order.
+     * 
+     * @param selector
+     *            the CSS selector, which must have been in the snapshot.
+     * @return A List<Element>, the states of the elements.
+     * @throws IllegalArgumentException
+     *             if the selector was not in the snapshot.
+     */
+    public List<Element> get(final String selector) {
+        final List<Element> states = elements.get(selector);
+        if (null == states) {
+            throw new IllegalArgumentException("Selector not in snapshot: " + selector);
+        }
+        return states;
+    }
+    
+    /**
+     * Produces the first element that matched a selector.
+     * 
+     * @param selector
+     *            the CSS selector, which must have been in the snapshot.
+     * @return An Element, the state of the first matching element, or null if none matched.
+     */
+    public Element first(final String selector) {
+        final List<Element> states = get(selector);
+        return states.isEmpty() ? null : states.get(0);
+    }
+}
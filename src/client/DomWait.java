@@ -0,0 +1,184 @@
+package client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+
+import server.Log;
+
+/**
+ * class DomWait
+ * 
+ * Waits on a condition evaluated in the page, by watching the page for changes rather than polling
+ * it over WebDriver. A single asynchronous script checks the condition, and checks it again on
+ * every DOM mutation, as well as on a short in-page timer for changes that cause no mutation, and
+ * returns as soon as it holds. Long waits are split into slices, so that no script runs longer
+ * than the driver's script timeout. If the driver does not support asynchronous scripts, the wait
+ * falls back to polling the condition with Web.test, for whatever time is left. Errors thrown by
+ * the condition count as it not holding, and the last one is reported if the wait times out.
+ * 
+ * @author wqian94
+ */
+final class DomWait {
+    private static final long SLICE_MILLIS = 5000; // The longest that one script waits.
+    
+    private static final long SCRIPT_TIMEOUT_MILLIS = 2 * SLICE_MILLIS; // Set on new drivers.
+    private static final String OBSERVE = String.join("\n",
+            "var check = new Function(arguments[0]);",
+            "var timeout = arguments[1];",
+            "var args = arguments[2];",
+            "var done = arguments[arguments.length - 1];",
+            "var error = null;",
+            "var test = function () {",
+            "    try { return !!check.apply(null, args); }",
+            "    catch (e) { error = String(e); return false; }",
+            "};",
+            "if (test()) { done({ held: true, error: null }); return; }",
+            "var finished = false, observer = null, interval, timer;",
+            "var finish = function (held) {",
+            "    if (finished) { return; }",
+            "    finished = true;",
+            "    if (observer) { observer.disconnect(); }",
+            "    clearInterval(interval);",
+            "    clearTimeout(timer);",
+            "    done({ held: held, error: held ? null : error });",
+            "};",
+            "try {", // Some browsers, e.g. HtmlUnit, cannot observe; the timer still checks.
+            "    observer = new MutationObserver(function () { if (test()) { finish(true); } });",
+            "    observer.observe(document.documentElement, { attributes: true, childList: true,",
+            "            subtree: true, characterData: true });",
+            "} catch (e) {",
+            "    observer = null;",
+            "}",
+            "interval = setInterval(function () { if (test()) { finish(true); } }, 50);",
+            "timer = setTimeout(function () { finish(test()); }, timeout);");
+    private static final String POLL = String.join("\n",
+            "try {",
+            "    return { held: !!new Function(arguments[0]).apply(null, arguments[1]),",
+            "            error: null };",
+            "} catch (e) {",
+            "    return { held: false, error: String(e) };",
+            "}");
+    
+    /**
+     * Prevents instantiation.
+     */
+    private DomWait() {
+    }
+    
+    /**
+     * Gives a new driver a script timeout long enough for a slice of a wait.
+     * 
+     * @param driver
+     *            the driver to configure.
+     */
+    static void configure(final WebDriver driver) {
+        driver.manage().timeouts().setScriptTimeout(SCRIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Waits until a condition holds in the page.
+     * 
+     * @param driver
+     *            the driver to wait on, which must be a JavascriptExecutor.
+     * @param timeout
+     *            the timeout for the wait, in seconds.
+     * @param condition
+     *            the body of a JavaScript function that returns whether to stop waiting, and that
+     *            receives the arguments as its arguments.
+     * @param arguments
+     *            the arguments to the condition, of the types accepted by executeScript.
+     * @throws TimeoutException
+     *             if the condition does not hold within the timeout.
+     */
+    static void await(final WebDriver driver, final long timeout, final String condition,
+            final Object[] arguments) {
+        if (!(driver instanceof JavascriptExecutor)) {
+            throw new IllegalArgumentException("Unable to run scripts in " + driver);
+        }
+        final JavascriptExecutor executor = (JavascriptExecutor) driver;
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+        final String[] error = new String[1]; // The last error thrown by the condition.
+        
+        int slices = 0;
+        try {
+            while (true) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                final long slice = Math.max(0, Math.min(remaining, SLICE_MILLIS));
+                slices++;
+                if (held(executor.executeAsyncScript(OBSERVE, condition, slice,
+                        Arrays.asList(arguments)), error)) {
+                    final int observed = slices;
+                    Log.log(Log.TRACE, () -> "Observed condition after " + observed
+                            + " scripts in " + (System.nanoTime() - start) / 1000000 + "ms.");
+                    return;
+                }
+                if (remaining <= SLICE_MILLIS) {
+                    break;
+                }
+            }
+        } catch (UnsupportedCommandException | UnsupportedOperationException exp) {
+            Log.log(Log.DEBUG, "Unable to observe condition, so polling instead: %s", exp);
+            final long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left > 0) {
+                try {
+                    Web.test(driver, left, TimeUnit.MILLISECONDS, (client) -> {
+                        return held(executor.executeScript(POLL, condition,
+                                Arrays.asList(arguments)), error);
+                    });
+                    return;
+                } catch (TimeoutException timedOut) {
+                    throw timeout(timeout, condition, error[0], timedOut);
+                }
+            }
+        }
+        
+        Log.log(Log.DEBUG, () -> "Wait timed out after " + (System.nanoTime() - start) / 1000000
+                + "ms.");
+        throw timeout(timeout, condition, error[0], null);
+    }
+    
+    /**
+     * Reads the outcome of a check of the condition, recording the error it threw, if any.
+     * 
+     * @param result
+     *            the result of the check script.
+     * @param error
+     *            holds the last error thrown by the condition, which is updated.
+     * @return A boolean, whether the condition held.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean held(final Object result, final String[] error) {
+        final Map<String, Object> outcome = (Map<String, Object>) result;
+        final Object thrown = outcome.get("error");
+        if (null != thrown) {
+            error[0] = thrown.toString(); // Not always a String, e.g. in HtmlUnit.
+        }
+        return Boolean.TRUE.equals(outcome.get("held"));
+    }
+    
+    /**
+     * Produces the exception for a wait that timed out.
+     * 
+     * @param timeout
+     *            the timeout for the wait, in seconds.
+     * @param condition
+     *            the condition waited on.
+     * @param error
+     *            the last error thrown by the condition, or null if none.
+     * @param cause
+     *            the cause of the timeout, or null if none.
+     * @return A TimeoutException.
+     */
+    private static TimeoutException timeout(final long timeout, final String condition,
+            final String error, final Throwable cause) {
+        return new TimeoutException("Condition did not hold within " + timeout + " seconds: "
+                + condition + (null == error ? "" : " (last error: " + error + ")"), cause);
+    }
+}
@@ -0,0 +1,208 @@
+package client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoAlertPresentException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import server.Log;
+
+/**
+ * class DriverPool
+ * 
+ * Keeps live browser sessions between tests, since starting a browser takes most of the time of a
+ * short test. Released drivers are reset to a clean state: open alerts are dismissed, extra
+ * windows are closed, cookies and storage are cleared, and the page is unloaded. Acquired drivers
+ * are checked to be alive, and drivers that fail either step are quit and replaced.
+ * 
+ * @author wqian94
+ */
+final class DriverPool {
+    private static final String CLEAR_STORAGE =
+            "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}";
+    
+    private final int maxIdle; // The most drivers kept per browser.
+    private final Map<Browser, Deque<WebDriver>> idle; // Reset drivers, by browser.
+    
+    /**
+     * Creates a new DriverPool.
+     * 
+     * @param maxIdle
+     *            the most drivers to keep per browser; drivers released beyond this are quit.
+     */
+    DriverPool(final int maxIdle) {
+        this.maxIdle = maxIdle;
+        this.idle = new EnumMap<>(Browser.class);
+        for (final Browser browser : Browser.values()) {
+            idle.put(browser, new ArrayDeque<>());
+        }
+    }
+    
+    /**
+     * Takes a live driver from the pool, or creates one if none is available.
+     * 
+     * @param browser
+     *            the type of browser of the driver.
+     * @param factory
+     *            creates a driver if the pool has no live one.
+     * @return A WebDriver, a live driver for the browser.
+     */
+    WebDriver acquire(final Browser browser, final Supplier<WebDriver> factory) {
+        WebDriver driver;
+        while (null != (driver = poll(browser))) {
+            if (isHealthy(driver)) {
+                Log.log(Log.DEBUG, "Reusing pooled %s driver.", browser);
+                return driver;
+            }
+            Log.log(Log.WARN, "Discarding unhealthy pooled %s driver.", browser);
+            quit(driver);
+        }
+        return factory.get();
+    }
+    
+    /**
+     * Resets a driver and returns it to the pool, or quits it if it cannot be reset or the pool
+     * is full.
+     * 
+     * @param browser
+     *            the type of browser of the driver.
+     * @param driver
+     *            the driver to return.
+     */
+    void release(final Browser browser, final WebDriver driver) {
+        if (!reset(driver)) {
+            Log.log(Log.WARN, "Unable to reset %s driver; quitting it.", browser);
+            quit(driver);
+            return;
+        }
+        
+        final Deque<WebDriver> drivers = idle.get(browser);
+        synchronized (drivers) {
+            if (drivers.size() < maxIdle) {
+                drivers.push(driver);
+                return;
+            }
+        }
+        quit(driver);
+    }
+    
+    /**
+     * Quits every driver in the pool.
+     */
+    void clear() {
+        for (final Browser browser : Browser.values()) {
+            WebDriver driver;
+            while (null != (driver = poll(browser))) {
+                quit(driver);
+            }
+        }
+    }
+    
+    /**
+     * Takes the most recently released driver for a browser from the pool.
+     * 
+     * @param browser
+     *            the type of browser of the driver.
+     * @return A WebDriver, or null if the pool has none for the browser.
+     */
+    private WebDriver poll(final Browser browser) {
+        final Deque<WebDriver> drivers = idle.get(browser);
+        synchronized (drivers) {
+            return drivers.poll();
+        }
+    }
+    
+    /**
+     * Returns whether a driver's session is still alive, by making a cheap round trip to the
+     * browser.
+     * 
+     * @param driver
+     *            the driver to check.
+     * @return A boolean, whether the driver can be used.
+     */
+    private static boolean isHealthy(final WebDriver driver) {
+        try {
+            if (driver instanceof RemoteWebDriver
+                    && null == ((RemoteWebDriver) driver).getSessionId()) {
+                return false;
+            }
+            return !driver.getWindowHandles().isEmpty();
+        } catch (Exception exp) {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns a driver to a clean state, leaving it with a single blank window.
+     * 
+     * @param driver
+     *            the driver to reset.
+     * @return A boolean, whether the driver was reset.
+     */
+    private static boolean reset(final WebDriver driver) {
+        try {
+            dismissAlert(driver);
+            
+            // Close every window but the first, dismissing any alerts that closing raises.
+            final Set<String> handles = driver.getWindowHandles();
+            if (handles.isEmpty()) {
+                return false;
+            }
+            final String kept = handles.iterator().next();
+            for (final String handle : handles) {
+                if (!kept.equals(handle)) {
+                    driver.switchTo().window(handle);
+                    driver.close();
+                    dismissAlert(driver);
+                }
+            }
+            driver.switchTo().window(kept);
+            
+            // Storage is per origin, so clear it before leaving the page.
+            if (driver instanceof JavascriptExecutor) {
+                ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE);
+            }
+            driver.manage().deleteAllCookies();
+            driver.get("about:blank"); // Stops any recording or playback.
+            dismissAlert(driver);
+            return true;
+        } catch (Exception exp) {
+            return false;
+        }
+    }
+    
+    /**
+     * Dismisses the open alert of a driver, if any.
+     * 
+     * @param driver
+     *            the driver whose alert to dismiss.
+     */
+    private static void dismissAlert(final WebDriver driver) {
+        try {
+            driver.switchTo().alert().dismiss();
+        } catch (NoAlertPresentException exp) {
+            // Nothing to dismiss.
+        }
+    }
+    
+    /**
+     * Ends a driver's session, ignoring errors, since the browser may already be gone.
+     * 
+     * @param driver
+     *            the driver to quit.
+     */
+    static void quit(final WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception exp) {
+            Log.log(Log.DEBUG, "Error quitting driver: %s", exp);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsElement;
+
+/**
+ * class ElementCache
+ * 
+ * Caches the elements found by CSS selector in a driver, so that looking up a stable element does
+ * not find it again every time. The cached elements are handed out as proxies, which pass every
+ * call through to the element they were found as, and find it again if the page has replaced it,
+ * i.e. on a StaleElementReferenceException, so the caller never sees a stale element.
+ * 
+ * Elements are checked against a counter of DOM mutations kept in the page, since a different
+ * element may come to match a selector, or elements be added to a list, without any cached element
+ * going stale. The check and any new find are one script, which returns nothing when the DOM has
+ * not changed. The counter is only trusted once its observer has reported a mutation, since some
+ * browsers, e.g. HtmlUnit, never report any; until then, every lookup finds the elements again.
+ * Each driver's cache is dropped when a page is loaded through Web.getDriver, and when the driver
+ * is released.
+ * 
+ * @author wqian94
+ */
+final class ElementCache {
+    private static final String SELECT = String.join("\n",
+            "var selector = arguments[0], known = arguments[1], all = arguments[2];",
+            "var epoch = window.__auoElementEpoch;",
+            "if (!epoch && window.MutationObserver) {",
+            "    try {", // Some browsers, e.g. HtmlUnit, cannot observe the document itself.
+            "        var counter = { id: Math.random().toString(36).slice(2), count: 0 };",
+            "        var observer = new MutationObserver(function () {",
+            "            counter.count++;",
+            "            counter.live = true;", // Only trusted once a mutation is reported.
+            "        });",
+            "        var options = { attributes: true, childList: true, subtree: true };",
+            "        var probe = document.createElement('div');",
+            "        observer.observe(document.documentElement, options);",
+            "        observer.observe(probe, options);",
+            "        probe.setAttribute('data-probe', '');",
+            "        epoch = window.__auoElementEpoch = counter;",
+            "    } catch (e) {}",
+            "}",
+            "var stamp = epoch && epoch.live ? epoch.id + ':' + epoch.count : null;",
+            "if (null !== stamp && stamp === known) { return null; }",
+            "return {",
+            "    stamp: stamp,",
+            "    elements: all ? Array.prototype.slice.call(document.querySelectorAll(selector))",
+            "            : [document.querySelector(selector)].filter(function (e) { return e; })",
+            "};");
+    private static final Map<WebDriver, ElementCache> caches =
+            Collections.synchronizedMap(new HashMap<>()); // The cache of each driver.
+    
+    private final WebDriver driver; // The driver whose elements are cached.
+    private final Map<String, WebElement> elements; // The element found by each selector.
+    private final Map<String, String> elementStamps; // The mutation count each was found at.
+    private final Map<String, List<WebElement>> lists; // The elements found by each selector.
+    private final Map<String, String> listStamps; // The mutation count each list was found at.
+    
+    /**
+     * Creates a new ElementCache.
+     * 
+     * @param driver
+     *            the driver whose elements to cache.
+     */
+    private ElementCache(final WebDriver driver) {
+        this.driver = driver;
+        this.elements = new HashMap<>();
+        this.elementStamps = new HashMap<>();
+        this.lists = new HashMap<>();
+        this.listStamps = new HashMap<>();
+    }
+    
+    /**
+     * Produces the cache of a driver, creating it if needed.
+     * 
+     * @param driver
+     *            the driver whose cache to produce.
+     * @return An ElementCache.
+     */
+    static ElementCache of(final WebDriver driver) {
+        synchronized (caches) {
+            return caches.computeIfAbsent(driver, ElementCache::new);
+        }
+    }
+    
+    /**
+     * Drops the cache of a driver, e.g. because it has loaded a new page. Must be called before a
+     * driver is quit, since the caches hold their drivers.
+     * 
+     * @param driver
+     *            the driver whose cache to drop.
+     */
+    static void invalidate(final WebDriver driver) {
+        caches.remove(driver);
+    }
+    
+    /**
+     * Produces the first element matching a selector, finding it again only if the DOM has changed
+     * since it was last found.
+     * 
+     * @param selector
+     *            the CSS selector to use.
+     * @return A WebElement, a proxy of the element.
+     * @throws NoSuchElementException
+     *             if no element matches the selector.
+     */
+    synchronized WebElement select(final String selector) {
+        if (!(driver instanceof JavascriptExecutor)) { // No way to check the DOM.
+            return proxy(driver.findElement(By.cssSelector(selector)), () -> refresh(selector));
+        }
+        final Found found = find(selector, elementStamps.get(selector), false);
+        if (null != found) {
+            if (found.elements.isEmpty()) {
+                elements.remove(selector);
+                elementStamps.remove(selector);
+                throw new NoSuchElementException("No element for selector " + selector);
+            }
+            elements.put(selector, found.elements.get(0));
+            elementStamps.put(selector, found.stamp);
+        }
+        return proxy(elements.get(selector), () -> refresh(selector));
+    }
+    
+    /**
+     * Produces every element matching a selector, finding them again only if the DOM has changed
+     * since they were last found.
+     * 
+     * @param selector
+     *            the CSS selector to use.
+     * @return A List<WebElement>, proxies of the elements.
+     */
+    synchronized List<WebElement> selectAll(final String selector) {
+        if (!(driver instanceof JavascriptExecutor)) {
+            return driver.findElements(By.cssSelector(selector)); // No way to check the DOM.
+        }
+        final Found found = find(selector, listStamps.get(selector), true);
+        if (null != found) {
+            lists.put(selector, found.elements);
+            listStamps.put(selector, found.stamp);
+        }
+        
+        final List<WebElement> cached = lists.get(selector);
+        final List<WebElement> proxies = new ArrayList<>(cached.size());
+        for (int i = 0; i < cached.size(); i++) {
+            final int index = i;
+            proxies.add(proxy(cached.get(index), () -> refresh(selector, index)));
+        }
+        return proxies;
+    }
+    
+    /**
+     * The elements found by the select script, and the mutation count they were found at.
+     */
+    private static final class Found {
+        private final String stamp; // The mutation count, or null if the page keeps none.
+        private final List<WebElement> elements; // The elements found.
+        
+        /**
+         * Creates a new Found.
+         * 
+         * @param stamp
+         *            the mutation count, or null if the page keeps none.
+         * @param elements
+         *            the elements found.
+         */
+        private Found(final String stamp, final List<WebElement> elements) {
+            this.stamp = stamp;
+            this.elements = elements;
+        }
+    }
+    
+    /**
+     * Finds the elements matching a selector in the page, unless the DOM has not changed since a
+     * given mutation count.
+     * 
+     * @param selector
+     *            the CSS selector to use.
+     * @param known
+     *            the mutation count the cached elements were found at, or null if none are cached.
+     * @param all
+     *            whether to find every matching element, rather than only the first.
+     * @return A Found, or null if the DOM has not changed.
+     */
+    @SuppressWarnings("unchecked")
+    private Found find(final String selector, final String known, final boolean all) {
+        final Object result = ((JavascriptExecutor) driver).executeScript(SELECT, selector,
+                null == known ? "" : known, all); // HtmlUnit rejects null arguments.
+        if (null == result) {
+            return null;
+        }
+        final Map<String, Object> found = (Map<String, Object>) result;
+        final Object stamp = found.get("stamp"); // Not always a String, e.g. in HtmlUnit.
+        return new Found(null == stamp ? null : stamp.toString(),
+                new ArrayList<>((List<WebElement>) found.get("elements")));
+    }
+    
+    /**
+     * Finds the element matching a selector again, after the cached one has gone stale.
+     * 
+     * @param selector
+     *            the CSS selector to use.
+     * @return A WebElement, the element as found now.
+     */
+    private synchronized WebElement refresh(final String selector) {
+        elementStamps.remove(selector);
+        final WebElement element = driver.findElement(By.cssSelector(selector));
+        elements.put(selector, element);
+        return element;
+    }
+    
+    /**
+     * Finds the elements matching a selector again, after one of the cached ones has gone stale.
+     * 
+     * @param selector
+     *            the CSS selector to use.
+     * @param index
+     *            the index of the element that went stale.
+     * @return A WebElement, the element at the index as found now.
+     * @throws NoSuchElementException
+     *             if there is no longer an element at the index.
+     */
+    private synchronized WebElement refresh(final String selector, final int index) {
+        listStamps.remove(selector);
+        final List<WebElement> found = driver.findElements(By.cssSelector(selector));
+        lists.put(selector, new ArrayList<>(found));
+        if (index >= found.size()) {
+            throw new NoSuchElementException(
+                    "No element " + index + " for selector " + selector + " after it went stale.");
+        }
+        return found.get(index);
+    }
+    
+    /**
+     * Finds an element again.
+     */
+    private interface Refresher {
+        /**
+         * Finds the element again.
+         * 
+         * @return A WebElement, the element as found now.
+         */
+        WebElement refresh();
+    }
+    
+    /**
+     * Produces a proxy of an element, which implements every interface that the element does, as
+     * well as WrapsElement so that Selenium can unwrap it, e.g. when passing it to a script.
+     * 
+     * @param element
+     *            the element as found.
+     * @param refresher
+     *            finds the element again if it goes stale.
+     * @return A WebElement, the proxy.
+     */
+    private static WebElement proxy(final WebElement element, final Refresher refresher) {
+        final Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> type = element.getClass(); null != type; type = type.getSuperclass()) {
+            for (final Class<?> implemented : type.getInterfaces()) {
+                if (Modifier.isPublic(implemented.getModifiers())) {
+                    interfaces.add(implemented);
+                }
+            }
+        }
+        interfaces.add(WebElement.class);
+        interfaces.add(WrapsElement.class);
+        return (WebElement) Proxy.newProxyInstance(ElementCache.class.getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]),
+                new Handler(element, refresher));
+    }
+    
+    /**
+     * Passes the calls on a proxy through to its element, finding the element again if it has gone
+     * stale.
+     */
+    private static final class Handler implements InvocationHandler {
+        private final Refresher refresher; // Finds the element again.
+        private WebElement element; // The element as last found.
+        
+        /**
+         * Creates a new Handler.
+         * 
+         * @param element
+         *            the element as found.
+         * @param refresher
+         *            finds the element again if it goes stale.
+         */
+        private Handler(final WebElement element, final Refresher refresher) {
+            this.element = element;
+            this.refresher = refresher;
+        }
+        
+        @Override
+        public synchronized Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            if (WrapsElement.class == method.getDeclaringClass()) {
+                return element;
+            }
+            if ("equals".equals(method.getName()) && null != args && 1 == args.length) {
+                final Object other = args[0] instanceof WrapsElement
+                        ? ((WrapsElement) args[0]).getWrappedElement() : args[0];
+                return element.equals(other);
+            }
+            
+            try {
+                return method.invoke(element, args);
+            } catch (InvocationTargetException exp) {
+                if (!(exp.getCause() instanceof StaleElementReferenceException)) {
+                    throw exp.getCause();
+                }
+            }
+            
+            // The page replaced the element, so find it again and retry once.
+            element = refresher.refresh();
+            try {
+                return method.invoke(element, args);
+            } catch (InvocationTargetException exp) {
+                throw exp.getCause();
+            }
+        }
+    }
+}
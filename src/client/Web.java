@@ -1,17 +1,36 @@
 package client;
 
-import java.util.LinkedList;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
 import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.support.ui.ExpectedCondition;
-import org.openqa.selenium.support.ui.WebDriverWait;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.WebClient;
 
 import server.Log;
 
@@ -21,93 +40,243 @@ import server.Log;
  * Provides methods that wrap the driver production steps to be browser-independent, so that the
  * tests only need to be written once (presumably).
  * 
+ * Each Web is an independent environment, with its own X display, or none if headless, and its
+ * own drivers, so that several can run side by side, e.g. one per concurrently-running test class.
+ * An environment is thread-safe, so concurrently-running tests may also share one. The waiting and
+ * selecting helpers only act on the driver given to them, and so are static.
+ * 
  * @author wqian94
  */
 public class Web {
-    private static final int DISPLAY = 42; // Currently hardcoded, should move to dynamic later.
+    private static final int POOL_SIZE = 2; // Idle drivers kept per browser between tests.
+    private static final long MIN_POLL_MILLIS = 10; // The first pause between polls in test.
+    private static final long MAX_POLL_MILLIS = 100; // The longest pause between polls in test.
+    private static final String DISPLAYED = "var element = document.querySelector(arguments[0]);"
+            + " return null !== element && element.getClientRects().length > 0"
+            + " && 'hidden' !== window.getComputedStyle(element).visibility;";
+    private static final int HEADLESS = -1; // The display of headless environments.
     
-    private static boolean initiated = false;
+    private final int display; // The X display that the browsers are shown on, or HEADLESS.
+    private final Process processXvfb; // The X server of the display, or null if headless.
+    private final Map<WebDriver, Browser> activeDrivers; // Drivers in use, and their browsers.
+    private final DriverPool pool; // Drivers kept between tests.
+    private ChromeDriverService chromeService; // Serves every Chrome session, or null if none.
+    private boolean terminated; // Whether this environment has been torn down.
     
-    private static LinkedList<WebDriver> activeDrivers = new LinkedList<>();
-    private static Process processXvfb = null;
+    /**
+     * Creates a new Web.
+     * 
+     * @param display
+     *            the X display that the browsers are shown on, or HEADLESS.
+     * @param processXvfb
+     *            the X server of the display, or null if headless.
+     */
+    private Web(final int display, final Process processXvfb) {
+        this.display = display;
+        this.processXvfb = processXvfb;
+        this.activeDrivers = new ConcurrentHashMap<>();
+        this.pool = new DriverPool(POOL_SIZE);
+        this.chromeService = null;
+        this.terminated = false;
+    }
+    
+    /**
+     * The initiation method, for setting up a new environment. The environment is headless if the
+     * auo.web.headless system property is true, and otherwise uses Xvfb.
+     * 
+     * @return A Web, the new environment.
+     */
+    public static Web initiate() {
+        return initiate(Boolean.getBoolean("auo.web.headless"));
+    }
     
     /**
-     * The initiation method, for setting up the environment. Will not set up a new environment if
-     * an old one already exists.
+     * The initiation method, for setting up a new environment. When headless, browsers are run
+     * without any display, and no X server is started. Otherwise, Xvfb is started on the first free
+     * display, which it reports back through -displayfd, so environments never collide.
      * 
-     * @return A boolean indicating whether a new environment was set up.
+     * @param headless
+     *            whether to run browsers headless, rather than on Xvfb.
+     * @return A Web, the new environment.
      */
-    public static boolean initiate() {
-        if (initiated) {
-            Log.log(Log.INFO, "Active Web environment currently exists. "
-                    + "Call terminate() before initiating a new session.");
-            return false;
+    public static Web initiate(final boolean headless) {
+        System.setProperty("webdriver.chrome.bin", "/usr/bin/google-chrome");
+        System.setProperty("webdriver.chrome.driver", "lib/chromedriver");
+        
+        if (headless) {
+            Log.log(Log.INFO, "Headless web session successfully initiated.");
+            return new Web(HEADLESS, null);
         }
         
         final ProcessBuilder pb = new ProcessBuilder(
-                new String[] { "Xvfb", ":" + DISPLAY, "-screen", "0", "1600x1200x24" });
-        pb.inheritIO();
-        pb.redirectError();
-        pb.redirectOutput();
+                new String[] { "Xvfb", "-displayfd", "1", "-screen", "0", "1600x1200x24" });
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        final Process processXvfb;
+        final int display;
         try {
             processXvfb = pb.start();
         } catch (Exception exp) {
             throw new RuntimeException(exp);
         }
+        try {
+            // Xvfb writes the display number once it is ready for clients.
+            final String line = new BufferedReader(new InputStreamReader(
+                    processXvfb.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            if (null == line) {
+                throw new IOException("Xvfb exited without reporting a display.");
+            }
+            display = Integer.parseInt(line.trim());
+        } catch (Exception exp) {
+            processXvfb.destroy();
+            throw new RuntimeException("Unable to start Xvfb.", exp);
+        }
         
-        System.setProperty("webdriver.chrome.bin", "/usr/bin/google-chrome");
-        System.setProperty("webdriver.chrome.driver", "lib/chromedriver");
-        
-        Log.log(Log.INFO, "Web session successfully initiated on display %d.", DISPLAY);
-        
-        initiated = true;
+        Log.log(Log.INFO, "Web session successfully initiated on display %d.", display);
         
-        return true;
+        return new Web(display, processXvfb);
     }
     
     /**
-     * The termination method, for tearing down the environment. Requires that an active, initiated
-     * session exists.
+     * The termination method, for tearing down the environment, ending every driver that it
+     * created. Does nothing if the environment has already been torn down.
      */
-    public static void terminate() {
-        if (!initiated) {
-            throw new RuntimeException("No active Web environment currently exists. "
-                    + "Call initiated() before attempting to terminate a session.");
+    public synchronized void terminate() {
+        if (terminated) {
+            return;
         }
+        terminated = true;
         
-        endDrivers();
-        processXvfb.destroy();
-        try {
-            processXvfb.waitFor();  // Wait for Xvfb to terminate.
-        } catch (Exception exp) {
-            exp.printStackTrace();
+        quitDrivers(); // Resetting drivers that are about to be quit would be wasted work.
+        pool.clear();
+        if (null != chromeService) {
+            chromeService.stop();
+            chromeService = null;
+        }
+        if (null != processXvfb) {
+            processXvfb.destroy();
+            try {
+                processXvfb.waitFor();  // Wait for Xvfb to terminate.
+            } catch (Exception exp) {
+                exp.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Produces whether this environment runs its browsers headless, without any display.
+     * 
+     * @return A boolean, whether the environment is headless.
+     */
+    public boolean isHeadless() {
+        return HEADLESS == display;
+    }
+    
+    /**
+     * Produces the X display that this environment's browsers are shown on.
+     * 
+     * @return An int, the display number.
+     * @throws IllegalStateException
+     *             if the environment is headless.
+     */
+    public int getDisplay() {
+        if (isHeadless()) {
+            throw new IllegalStateException("Headless environments have no display.");
         }
-        initiated = false;
+        return display;
     }
     
     /**
-     * Wraps the WebDriverWait-and-promise routine to enable easier wait-and-tests.
+     * Wraps the wait-and-promise routine to enable easier wait-and-tests. The predicate is polled
+     * with exponential backoff, starting at MIN_POLL_MILLIS and doubling up to MAX_POLL_MILLIS, so
+     * that conditions that hold quickly are noticed quickly, while long waits cost few round trips.
+     * As with WebDriverWait, a NotFoundException counts as the predicate not holding. The number of
+     * polls and the time taken are traced on success, and logged at DEBUG on a timeout. Prefer
+     * await for conditions that can be checked in the page.
      * 
      * @param driver
      *            the driver to wait on.
      * @param timeout
-     *            the timeout for the driver wait.
+     *            the timeout for the driver wait, in seconds.
      * @param functor
      *            the predicate functor to use as the promise-deliverer.
      */
     public static void test(final WebDriver driver, final long timeout,
             final Predicate<WebDriver> func) {
-        final int sleep = 100; // Sleep for 100ms at a time during waits.
-        new WebDriverWait(driver, timeout, sleep).until(new ExpectedCondition<Boolean>() {
-            @Override
-            public Boolean apply(final WebDriver driver) {
-                try {
-                    return func.test(driver);
-                } catch (Exception exp) {
-                    throw exp;
+        test(driver, timeout, TimeUnit.SECONDS, func);
+    }
+    
+    /**
+     * Polls a predicate as in test, with a timeout in any unit, e.g. so that a wait can be given
+     * only the time left of a longer one.
+     * 
+     * @param driver
+     *            the driver to wait on.
+     * @param timeout
+     *            the timeout for the driver wait.
+     * @param unit
+     *            the unit of the timeout.
+     * @param func
+     *            the predicate functor to use as the promise-deliverer.
+     */
+    static void test(final WebDriver driver, final long timeout, final TimeUnit unit,
+            final Predicate<WebDriver> func) {
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        long sleep = MIN_POLL_MILLIS;
+        int polls = 0;
+        RuntimeException last = null; // The last NotFoundException, if any.
+        while (true) {
+            polls++;
+            try {
+                if (func.test(driver)) {
+                    break;
                 }
+            } catch (NotFoundException exp) {
+                last = exp;
             }
-        });
+            
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                final int tried = polls;
+                Log.log(Log.DEBUG, () -> "Wait timed out after " + tried + " polls in "
+                        + (System.nanoTime() - start) / 1000000 + "ms.");
+                throw new TimeoutException("Condition did not hold within " + timeout + " "
+                        + unit.name().toLowerCase(Locale.ROOT) + " after " + polls + " polls.",
+                        last);
+            }
+            try {
+                Thread.sleep(Math.min(sleep, remaining));
+            } catch (InterruptedException exp) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException(exp);
+            }
+            sleep = Math.min(sleep * 2, MAX_POLL_MILLIS);
+        }
+        
+        final int tried = polls;
+        Log.log(Log.TRACE, () -> "Wait succeeded after " + tried + " polls in "
+                + (System.nanoTime() - start) / 1000000 + "ms.");
+    }
+    
+    /**
+     * Waits until a condition holds in the page, returning as soon as it does rather than at the
+     * next poll. The condition is checked in the page whenever the DOM changes, and on a short
+     * in-page timer, so that the wait costs a single round trip. If the driver cannot run
+     * asynchronous scripts, the condition is polled as in test instead.
+     * 
+     * @param driver
+     *            the driver to wait on, which must be able to run scripts.
+     * @param timeout
+     *            the timeout for the wait, in seconds.
+     * @param condition
+     *            the body of a JavaScript function that returns whether to stop waiting, as for
+     *            executeScript, e.g. "return !document.querySelector(arguments[0]).disabled;".
+     * @param arguments
+     *            the arguments to pass to the condition.
+     */
+    public static void await(final WebDriver driver, final long timeout, final String condition,
+            final Object... arguments) {
+        DomWait.await(driver, timeout, condition, arguments);
     }
     
     /**
@@ -130,18 +299,20 @@ public class Web {
     }
     
     /**
-     * Macro wrapper for selecting an element by CSS selector.
+     * Macro wrapper for selecting an element by CSS selector. The element is cached per driver, and
+     * only found again if the DOM has changed since it was last found, or if the page replaces it.
      * 
      * @param driver the driver to select from.
      * @param selector the CSS selector to use.
      * @return A WebElement, the result of driver.findElement(By.cssSelector(selector)).
      */
     public static WebElement cssSelect(final WebDriver driver, final String selector) {
-        return driver.findElement(By.cssSelector(selector));
+        return ElementCache.of(driver).select(selector);
     }
     
     /**
-     * Macro wrapper for selecting multiple elements by CSS selector.
+     * Macro wrapper for selecting multiple elements by CSS selector. The elements are cached per
+     * driver, and only found again if the DOM has changed since they were last found.
      * 
      * @param driver
      *            the driver to select from.
@@ -150,26 +321,86 @@ public class Web {
      * @return A List<WebElement>, the result of driver.findElements(By.cssSelector(selector)).
      */
     public static List<WebElement> cssSelects(final WebDriver driver, final String selector) {
-        return driver.findElements(By.cssSelector(selector));
+        return ElementCache.of(driver).selectAll(selector);
+    }
+    
+    /**
+     * Takes a snapshot of the state of every element matching a set of CSS selectors, in one round
+     * trip to the browser.
+     * 
+     * @param driver
+     *            the driver to take the snapshot in.
+     * @param selectors
+     *            the CSS selectors to use.
+     * @return A DomSnapshot recording whether each element is displayed and enabled, its text, and
+     *         its size.
+     */
+    public static DomSnapshot snapshot(final WebDriver driver, final String... selectors) {
+        return DomSnapshot.take(driver, Arrays.asList(selectors), Collections.emptyList());
+    }
+    
+    /**
+     * Takes a snapshot of the state of every element matching a set of CSS selectors, including
+     * other DOM properties of the elements, in one round trip to the browser.
+     * 
+     * @param driver
+     *            the driver to take the snapshot in.
+     * @param selectors
+     *            the CSS selectors to use.
+     * @param properties
+     *            the names of the other DOM properties to record, e.g. "title" or "value".
+     * @return A DomSnapshot recording whether each element is displayed and enabled, its text, its
+     *         size, and the other properties.
+     */
+    public static DomSnapshot snapshot(final WebDriver driver, final Collection<String> selectors,
+            final Collection<String> properties) {
+        return DomSnapshot.take(driver, selectors, properties);
     }
     
     /**
-     * Cleans up all active drivers by closing all active windows and ending all sessions.
+     * Cleans up all active drivers, resetting them and returning them to the pool for later tests.
+     * Drivers that cannot be reset, or that do not fit in the pool, have their sessions ended.
+     * When tests run concurrently in this environment, use release instead, so that each test
+     * only cleans up its own drivers.
      */
-    public static void endDrivers() {
-        for (final WebDriver driver : activeDrivers) {
-            driver.close();
-            driver.quit();
+    public void endDrivers() {
+        for (final WebDriver driver : activeDrivers.keySet()) {
+            release(driver);
+        }
+    }
+    
+    /**
+     * Ends the sessions of all active drivers, without resetting them or returning them to the
+     * pool.
+     */
+    private void quitDrivers() {
+        for (final WebDriver driver : activeDrivers.keySet()) {
+            if (null != activeDrivers.remove(driver)) {
+                ElementCache.invalidate(driver);
+                DriverPool.quit(driver);
+            }
         }
-        
-        // Reset the list.
-        activeDrivers = new LinkedList<>();
     }
     
     /**
-     * Dynamically creates a WebDriver to use in tests, based on the selected browser type. Will
-     * load the page and wait until the page loads such that the element specified by the condition
-     * has been displayed.
+     * Cleans up an active driver, resetting it and returning it to the pool for later tests. Does
+     * nothing if the driver is not active in this environment.
+     * 
+     * @param driver
+     *            the driver to clean up.
+     */
+    public void release(final WebDriver driver) {
+        final Browser browser = activeDrivers.remove(driver);
+        if (null != browser) {
+            ElementCache.invalidate(driver);
+            pool.release(browser, driver);
+        }
+    }
+    
+    /**
+     * Dynamically creates a WebDriver to use in tests, based on the selected browser type, reusing
+     * a pooled driver left by an earlier test if one is alive. Will load the page and wait until
+     * the page loads such that the element specified by the condition has been displayed.
      * 
      * @param browser
      *            the type of browser to emulate.
@@ -178,42 +409,178 @@ public class Web {
      * @param condition
      *            a By stating what element to wait on. If null, no wait will occur.
      */
-    public static WebDriver getDriver(final Browser browser, final String target,
-            final By condition) {
-        WebDriver driver;
-        
-        switch (browser) {
-            case CHROME:
-                driver = getDriverChrome();
-                break;
-            // As long as we implement a case for each enum value, we shouldn't get here.
-            default:
-                throw new IllegalArgumentException("Browser support for " + browser + " missing!");
+    public WebDriver getDriver(final Browser browser, final String target, final By condition) {
+        final WebDriver driver = getDriver(browser, target);
+        if (null != condition) {
+            test(driver, 60, (client) -> {
+                return client.findElement(condition).isDisplayed();
+            });
+        }
+        return driver;
+    }
+    
+    /**
+     * Dynamically creates a WebDriver to use in tests, as with getDriver(browser, target, By), but
+     * waits on the element by observing the page, so that the wait ends as soon as the element is
+     * displayed.
+     * 
+     * @param browser
+     *            the type of browser to emulate.
+     * @param target
+     *            the page to load.
+     * @param cssSelector
+     *            a CSS selector stating what element to wait on. If null, no wait will occur.
+     */
+    public WebDriver getDriver(final Browser browser, final String target,
+            final String cssSelector) {
+        final WebDriver driver = getDriver(browser, target);
+        if (null != cssSelector && Browser.HTMLUNIT == browser) {
+            // HtmlUnit does not lay out the page, so ask it whether the element is displayed.
+            test(driver, 60, (client) -> {
+                return client.findElement(By.cssSelector(cssSelector)).isDisplayed();
+            });
+        } else if (null != cssSelector) {
+            await(driver, 60, DISPLAYED, cssSelector);
         }
+        return driver;
+    }
+    
+    /**
+     * Produces a driver for a browser, reusing a pooled one if possible, and loads a page in it.
+     * 
+     * @param browser
+     *            the type of browser to emulate.
+     * @param target
+     *            the page to load.
+     * @return A WebDriver, which is registered as active in this environment.
+     */
+    private WebDriver getDriver(final Browser browser, final String target) {
+        final WebDriver driver = pool.acquire(browser, () -> {
+            final WebDriver created;
+            switch (browser) {
+                case CHROME:
+                    created = getDriverChrome();
+                    break;
+                case HTMLUNIT:
+                    created = getDriverHtmlUnit();
+                    break;
+                // As long as we implement a case for each enum value, we shouldn't get here.
+                default:
+                    throw new IllegalArgumentException(
+                            "Browser support for " + browser + " missing!");
+            }
+            DomWait.configure(created);
+            return created;
+        });
         
-        // Keep track of the created driver.
-        activeDrivers.add(driver);
+        // Keep track of the created driver, and tag this thread's log entries with it.
+        activeDrivers.put(driver, browser);
+        Log.setDriverId(getDriverId(driver));
         
-        // Retrieve and load the page.
+        // Retrieve and load the page, whose elements are not yet cached.
+        ElementCache.invalidate(driver);
         driver.get(target);
-        test(driver, 60, (client) -> {
-            return client.findElement(condition).isDisplayed();
-        });
-        
         return driver;
     }
     
     /**
-     * Dynamically creates a ChromeDriver.
+     * Returns an id for a driver to tag log entries with: the session id of remote drivers, which
+     * matches the browser's own logs, and otherwise an id unique to the driver object.
+     * 
+     * @param driver
+     *            the driver to identify.
+     * @return A String, the id of the driver.
+     */
+    private static String getDriverId(final WebDriver driver) {
+        if (driver instanceof RemoteWebDriver) {
+            final SessionId session = ((RemoteWebDriver) driver).getSessionId();
+            if (null != session) {
+                return session.toString();
+            }
+        }
+        return driver.getClass().getSimpleName() + "@"
+                + Integer.toHexString(System.identityHashCode(driver));
+    }
+    
+    /**
+     * Dynamically creates a Chrome session, through this environment's shared ChromeDriver server.
      * 
-     * @return A WebDriver that emulates the Chrome environment, with media security disabled.
+     * @return A WebDriver that emulates the Chrome environment, with media security disabled and
+     *         the test server's self-signed certificate accepted. When headless, a fake capture
+     *         device stands in for the microphone.
      */
-    private static WebDriver getDriverChrome() {
+    private WebDriver getDriverChrome() {
         final ChromeOptions options = new ChromeOptions();
-        options.addArguments("display=:42");
-        options.addArguments("start-maximized");
+        if (isHeadless()) {
+            options.addArguments("headless");
+            options.addArguments("disable-gpu");
+            options.addArguments("window-size=1600,1200");
+            options.addArguments("use-fake-device-for-media-stream");
+        } else {
+            options.addArguments("display=:" + display);
+            options.addArguments("start-maximized");
+        }
         options.addArguments("use-fake-ui-for-media-stream=true");
-        final WebDriver driver = new ChromeDriver(options);
-        return driver;
+        options.addArguments("ignore-certificate-errors");
+        final DesiredCapabilities capabilities = DesiredCapabilities.chrome();
+        capabilities.setCapability(ChromeOptions.CAPABILITY, options);
+        return new RemoteWebDriver(getChromeService().getUrl(), capabilities);
+    }
+    
+    /**
+     * Produces the ChromeDriver server shared by every Chrome session in this environment,
+     * starting it if it is not running, so that sessions do not each spawn a chromedriver.
+     * 
+     * @return A ChromeDriverService, which is running.
+     */
+    private synchronized ChromeDriverService getChromeService() {
+        if (terminated) {
+            throw new IllegalStateException("The Web environment has been terminated.");
+        }
+        if (null == chromeService || !chromeService.isRunning()) {
+            final ChromeDriverService service = new ChromeDriverService.Builder()
+                    .usingDriverExecutable(new File(System.getProperty("webdriver.chrome.driver")))
+                    .usingAnyFreePort().build();
+            try {
+                service.start();
+            } catch (IOException exp) {
+                throw new RuntimeException("Unable to start ChromeDriver.", exp);
+            }
+            chromeService = service;
+            Log.log(Log.INFO, "ChromeDriver started at %s.", service.getUrl());
+        }
+        return chromeService;
+    }
+    
+    /**
+     * Dynamically creates an HtmlUnitDriver, which runs in-process and emulates Chrome's
+     * JavaScript, but has no media stack.
+     * 
+     * @return A WebDriver that emulates Chrome's DOM and JavaScript, with the test server's
+     *         self-signed certificate accepted, and with script errors, e.g. from the missing media
+     *         APIs, logged rather than thrown.
+     */
+    private static WebDriver getDriverHtmlUnit() {
+        return new LenientHtmlUnitDriver();
+    }
+    
+    /**
+     * An HtmlUnitDriver that accepts the test server's self-signed certificate, and that logs
+     * script errors rather than throwing them.
+     */
+    private static final class LenientHtmlUnitDriver extends HtmlUnitDriver {
+        /**
+         * Creates a new LenientHtmlUnitDriver, emulating Chrome with JavaScript enabled.
+         */
+        private LenientHtmlUnitDriver() {
+            super(BrowserVersion.CHROME, true);
+        }
+        
+        @Override
+        protected WebClient modifyWebClient(final WebClient client) {
+            client.getOptions().setUseInsecureSSL(true);
+            client.getOptions().setThrowExceptionOnScriptError(false);
+            return client;
+        }
     }
-}
\ No newline at end of file
+}
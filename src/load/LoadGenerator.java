@@ -0,0 +1,523 @@
+package load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import server.Log;
+
+/**
+ * class LoadGenerator
+ * 
+ * Loads an AuoServer over HTTP without any browsers, with a configurable number of connections,
+ * mix of requests, and save size. Requests are sent either in a closed loop, where each
+ * connection sends its next request as soon as the last one completes, or at a fixed rate, where
+ * requests are scheduled independently of how quickly the server responds. At a fixed rate,
+ * latencies are measured from when each request was scheduled, so that a stall in the server is
+ * charged to every request that it delayed, not just to the one in progress; see LoadReport.
+ * 
+ * Usage: LoadGenerator base-url [--concurrency=N] [--rate=N] [--duration=SECONDS]
+ * [--mix=test:W,auojs:W,save:W,static:W] [--upload=BYTES] [--static=PATH] [--insecure]
+ * 
+ * @author wqian94
+ */
+public final class LoadGenerator {
+    private static final int COPY_BYTES = 16 * 1024; // Size of the chunks that bodies move in.
+    private static final int WAV_HEADER_BYTES = 44; // Size of a canonical WAV header.
+    private static final int SAMPLE_RATE = 44100; // Sample rate of the generated saves.
+    
+    private final String baseUrl; // The root URL of the server, ending in a slash.
+    private final int concurrency; // The number of connections sending requests at once.
+    private final double rate; // Requests per second to schedule, or 0 for a closed loop.
+    private final long durationNanos; // How long to send requests for.
+    private final LoadTarget[] mix; // Each target repeated by its weight, for weighted choice.
+    private final String staticPath; // The static file to request, relative to the root.
+    private final byte[] upload; // The body of each save request.
+    private final SSLSocketFactory sslSocketFactory; // Trusts any certificate, or null.
+    
+    /**
+     * class Builder
+     * 
+     * Configures a LoadGenerator. By default, the generator runs a closed loop on 8 connections for
+     * 10 seconds, requesting AuO.js, the test page, and saves of 64 KiB in a 10:1:1 ratio.
+     * 
+     * @author wqian94
+     */
+    public static final class Builder {
+        private final String baseUrl; // The root URL of the server.
+        private int concurrency; // The number of connections sending requests at once.
+        private double rate; // Requests per second to schedule, or 0 for a closed loop.
+        private long durationNanos; // How long to send requests for.
+        private final Map<LoadTarget, Integer> weights; // The relative frequency of each target.
+        private String staticPath; // The static file to request, or null.
+        private int uploadBytes; // The size of each save request.
+        private boolean insecure; // Whether to trust any TLS certificate.
+        
+        /**
+         * Creates a new Builder.
+         * 
+         * @param baseUrl
+         *            the root URL of the server, e.g. AuoServer.getURL().
+         */
+        private Builder(final String baseUrl) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+            this.concurrency = 8;
+            this.rate = 0;
+            this.durationNanos = TimeUnit.SECONDS.toNanos(10);
+            this.weights = new EnumMap<>(LoadTarget.class);
+            weights.put(LoadTarget.AUO_JS, 10);
+            weights.put(LoadTarget.TEST_PAGE, 1);
+            weights.put(LoadTarget.SAVE, 1);
+            this.staticPath = null;
+            this.uploadBytes = 64 * 1024;
+            this.insecure = false;
+        }
+        
+        /**
+         * Sets the number of connections sending requests at once.
+         * 
+         * @param concurrency
+         *            the number of connections.
+         * @return This Builder.
+         */
+        public Builder concurrency(final int concurrency) {
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+            }
+            this.concurrency = concurrency;
+            return this;
+        }
+        
+        /**
+         * Sets the rate at which requests are scheduled. If the connections cannot keep up, the
+         * requests queue, and their waiting time counts towards their response time. The run
+         * then lasts until every request scheduled within the duration has completed.
+         * 
+         * @param rate
+         *            the number of requests per second, or 0 to run a closed loop instead.
+         * @return This Builder.
+         */
+        public Builder rate(final double rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Rate must be non-negative: " + rate);
+            }
+            this.rate = rate;
+            return this;
+        }
+        
+        /**
+         * Sets how long to send requests for.
+         * 
+         * @param duration
+         *            the length of the run.
+         * @param unit
+         *            the unit of the duration.
+         * @return This Builder.
+         */
+        public Builder duration(final long duration, final TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+        
+        /**
+         * Sets how often a kind of request is sent, relative to the others.
+         * 
+         * @param target
+         *            the kind of request.
+         * @param weight
+         *            the relative frequency of the request, or 0 to not send it.
+         * @return This Builder.
+         */
+        public Builder weight(final LoadTarget target, final int weight) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight must be non-negative: " + weight);
+            }
+            weights.put(target, weight);
+            return this;
+        }
+        
+        /**
+         * Sets the static file to request, and includes it in the mix with weight 1 if it is not
+         * weighted already.
+         * 
+         * @param path
+         *            the path of a file under the server's root, e.g. "index.html".
+         * @return This Builder.
+         */
+        public Builder staticFile(final String path) {
+            this.staticPath = path.startsWith("/") ? path.substring(1) : path;
+            weights.putIfAbsent(LoadTarget.STATIC_FILE, 1);
+            return this;
+        }
+        
+        /**
+         * Sets the size of each save request. The body is a WAV recording of a tone, so that the
+         * server analyzes it as it would a real save.
+         * 
+         * @param bytes
+         *            the size of the save, in bytes.
+         * @return This Builder.
+         */
+        public Builder uploadSize(final int bytes) {
+            if (bytes < WAV_HEADER_BYTES) {
+                throw new IllegalArgumentException(
+                        "Upload must be at least " + WAV_HEADER_BYTES + " bytes: " + bytes);
+            }
+            this.uploadBytes = bytes;
+            return this;
+        }
+        
+        /**
+         * Trusts any TLS certificate, such as the self-signed one from AuoServer.startSecure.
+         * 
+         * @param insecure
+         *            whether to trust any certificate.
+         * @return This Builder.
+         */
+        public Builder insecure(final boolean insecure) {
+            this.insecure = insecure;
+            return this;
+        }
+        
+        /**
+         * Creates the LoadGenerator.
+         * 
+         * @return A LoadGenerator with the configured options.
+         */
+        public LoadGenerator build() {
+            final List<LoadTarget> mix = new ArrayList<>();
+            for (final Map.Entry<LoadTarget, Integer> entry : weights.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    mix.add(entry.getKey());
+                }
+            }
+            if (mix.isEmpty()) {
+                throw new IllegalStateException("No requests have a positive weight.");
+            }
+            if (mix.contains(LoadTarget.STATIC_FILE) && null == staticPath) {
+                throw new IllegalStateException("Static file requests need a static file.");
+            }
+            return new LoadGenerator(this, mix.toArray(new LoadTarget[mix.size()]));
+        }
+    }
+    
+    /**
+     * Creates a Builder for a LoadGenerator.
+     * 
+     * @param baseUrl
+     *            the root URL of the server, e.g. AuoServer.getURL().
+     * @return A Builder, which creates the LoadGenerator when its build() method is called.
+     */
+    public static Builder builder(final String baseUrl) {
+        return new Builder(baseUrl);
+    }
+    
+    /**
+     * Creates a new LoadGenerator.
+     * 
+     * @param builder
+     *            the configured options.
+     * @param mix
+     *            each target repeated by its weight.
+     */
+    private LoadGenerator(final Builder builder, final LoadTarget[] mix) {
+        this.baseUrl = builder.baseUrl;
+        this.concurrency = builder.concurrency;
+        this.rate = builder.rate;
+        this.durationNanos = builder.durationNanos;
+        this.mix = mix;
+        this.staticPath = builder.staticPath;
+        this.upload = createWav(builder.uploadBytes);
+        this.sslSocketFactory = builder.insecure ? createTrustAllSocketFactory() : null;
+    }
+    
+    /**
+     * Runs a load test from the command line and prints its report.
+     * 
+     * @param args
+     *            the root URL of the server, followed by options as described in the class
+     *            comment.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the run to finish.
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadGenerator base-url [--concurrency=N] [--rate=N] "
+                    + "[--duration=SECONDS] [--mix=test:W,auojs:W,save:W,static:W] "
+                    + "[--upload=BYTES] [--static=PATH] [--insecure]");
+            System.exit(2);
+        }
+        
+        // Keep every connection alive between requests, rather than only the JVM's default of 5.
+        final int concurrency = Integer.parseInt(findOption(args, "--concurrency=", "8"));
+        if (null == System.getProperty("http.maxConnections")) {
+            System.setProperty("http.maxConnections", Integer.toString(concurrency));
+        }
+        
+        final Builder builder = builder(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            final String arg = args[i];
+            final String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--concurrency=")) {
+                builder.concurrency(Integer.parseInt(value));
+            } else if (arg.startsWith("--rate=")) {
+                builder.rate(Double.parseDouble(value));
+            } else if (arg.startsWith("--duration=")) {
+                builder.duration((long) (Double.parseDouble(value) * 1000), TimeUnit.MILLISECONDS);
+            } else if (arg.startsWith("--upload=")) {
+                builder.uploadSize(Integer.parseInt(value));
+            } else if (arg.startsWith("--static=")) {
+                builder.staticFile(value);
+            } else if (arg.equals("--insecure")) {
+                builder.insecure(true);
+            } else if (arg.startsWith("--mix=")) {
+                for (final LoadTarget target : LoadTarget.values()) {
+                    builder.weight(target, 0);
+                }
+                for (final String pair : value.split(",")) {
+                    final String[] parts = pair.split(":");
+                    builder.weight(parseTarget(parts[0]), Integer.parseInt(parts[1]));
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        
+        final LoadReport report = builder.build().run();
+        System.out.print(report);
+        System.exit(0 == report.getErrors() ? 0 : 1);
+    }
+    
+    /**
+     * Finds the value of an option on the command line.
+     * 
+     * @param args
+     *            the command-line arguments.
+     * @param prefix
+     *            the option's prefix, including the equals sign.
+     * @param defaultValue
+     *            the value to return if the option is absent.
+     * @return A String, the value of the last occurrence of the option, or the default.
+     */
+    private static String findOption(final String[] args, final String prefix,
+            final String defaultValue) {
+        String value = defaultValue;
+        for (final String arg : args) {
+            if (arg.startsWith(prefix)) {
+                value = arg.substring(prefix.length());
+            }
+        }
+        return value;
+    }
+    
+    /**
+     * Parses the name of a target as given on the command line.
+     * 
+     * @param name
+     *            one of "test", "auojs", "save", or "static".
+     * @return A LoadTarget, the named target.
+     */
+    private static LoadTarget parseTarget(final String name) {
+        switch (name.toLowerCase()) {
+            case "test":
+                return LoadTarget.TEST_PAGE;
+            case "auojs":
+                return LoadTarget.AUO_JS;
+            case "save":
+                return LoadTarget.SAVE;
+            case "static":
+                return LoadTarget.STATIC_FILE;
+            default:
+                throw new IllegalArgumentException("Unknown target: " + name);
+        }
+    }
+    
+    /**
+     * Runs the load test, and waits for it to finish.
+     * 
+     * @return A LoadReport, the results of the run.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the run to finish.
+     */
+    public LoadReport run() throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        final AtomicLong sequence = new AtomicLong(); // Number of the next request to schedule.
+        final long intervalNanos = 0 == rate ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        
+        Log.log(Log.INFO, "Loading %s with %d connections for %.1f s, %s.", baseUrl, concurrency,
+                durationNanos / 1e9, 0 == rate ? "closed loop" : rate + " requests/s");
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + durationNanos;
+        final List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            final Thread worker = new Thread(() -> {
+                while (true) {
+                    final long scheduled;
+                    if (0 == rate) {
+                        scheduled = System.nanoTime();
+                    } else {
+                        // Open model: request n is due at a fixed time, however late we are.
+                        scheduled = startNanos + sequence.getAndIncrement() * intervalNanos;
+                        for (long wait; (wait = scheduled - System.nanoTime()) > 0;) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    if (scheduled - endNanos >= 0) {
+                        return;
+                    }
+                    
+                    final LoadTarget target = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+                    final long sent = System.nanoTime();
+                    final boolean ok = send(target);
+                    report.get(target).record(scheduled, sent, System.nanoTime(), ok);
+                }
+            }, "LoadGenerator-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        report.finish((System.nanoTime() - startNanos) / 1e9);
+        Log.log(Log.INFO, "Load finished: %d requests, %d errors, %.1f requests/s.",
+                report.getRequests(), report.getErrors(), report.getThroughput());
+        return report;
+    }
+    
+    /**
+     * Sends a single request and reads its response in full.
+     * 
+     * @param target
+     *            the kind of request to send.
+     * @return A boolean, whether the request succeeded with a 2xx response.
+     */
+    private boolean send(final LoadTarget target) {
+        final String path;
+        switch (target) {
+            case TEST_PAGE:
+                path = "TEST";
+                break;
+            case AUO_JS:
+                path = "AuO.js";
+                break;
+            case SAVE:
+                path = "TEST-SAVE";
+                break;
+            case STATIC_FILE:
+                path = staticPath;
+                break;
+            // As long as we implement a case for each enum value, we shouldn't get here.
+            default:
+                throw new IllegalArgumentException("Load target " + target + " missing!");
+        }
+        
+        try {
+            final HttpURLConnection connection =
+                    (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            if (null != sslSocketFactory && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+                ((HttpsURLConnection) connection).setHostnameVerifier((host, session) -> true);
+            }
+            connection.setRequestMethod(target.getMethod());
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (LoadTarget.SAVE == target) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(upload.length);
+                connection.setRequestProperty("Content-Type", "audio/wav");
+                try (final OutputStream out = connection.getOutputStream()) {
+                    out.write(upload);
+                }
+            }
+            
+            final int status = connection.getResponseCode();
+            final InputStream in =
+                    status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (null != in) {
+                try {
+                    final byte[] discard = new byte[COPY_BYTES];
+                    while (in.read(discard) >= 0) {
+                        // Drain the response so the connection can be reused.
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return 2 == status / 100;
+        } catch (IOException exp) {
+            return false;
+        }
+    }
+    
+    /**
+     * Creates a mono 16-bit PCM WAV recording of a 440 Hz tone.
+     * 
+     * @param bytes
+     *            the total size of the recording, including the header.
+     * @return A byte[], the recording.
+     */
+    private static byte[] createWav(final int bytes) {
+        final int dataBytes = (bytes - WAV_HEADER_BYTES) & ~1;
+        final ByteBuffer wav = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt(bytes - 8);
+        wav.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' }).putInt(16);
+        wav.putShort((short) 1).putShort((short) 1).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2)
+                .putShort((short) 2).putShort((short) 16);
+        wav.put(new byte[] { 'd', 'a', 't', 'a' }).putInt(dataBytes);
+        for (int i = 0; i < dataBytes / 2; i++) {
+            final double phase = 2 * Math.PI * 440 * i / SAMPLE_RATE;
+            wav.putShort((short) (Short.MAX_VALUE / 2 * Math.sin(phase)));
+        }
+        return wav.array();
+    }
+    
+    /**
+     * Creates a socket factory that trusts any certificate.
+     * 
+     * @return An SSLSocketFactory, for connecting to servers with self-signed certificates.
+     */
+    private static SSLSocketFactory createTrustAllSocketFactory() {
+        final TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(final X509Certificate[] chain, final String auth) {
+                // Trusted.
+            }
+            
+            @Override
+            public void checkServerTrusted(final X509Certificate[] chain, final String auth) {
+                // Trusted.
+            }
+            
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        try {
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] { trustAll }, null);
+            return context.getSocketFactory();
+        } catch (GeneralSecurityException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+}
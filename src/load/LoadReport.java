@@ -0,0 +1,209 @@
+package load;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import server.LatencyHistogram;
+
+/**
+ * class LoadReport
+ * 
+ * The results of a LoadGenerator run: for each kind of request, how many were sent, how many
+ * failed, and how long they took. Each latency is recorded twice. The response time runs from when
+ * the request was scheduled to be sent, so it includes any time spent waiting for a free
+ * connection and is corrected for coordinated omission: a stalled server cannot hide the requests
+ * that should have been sent while it stalled. The service time runs from when the request was
+ * actually sent, and is what a closed-loop client would report.
+ * 
+ * @author wqian94
+ */
+public final class LoadReport {
+    /**
+     * class TargetStats
+     * 
+     * The results for a single kind of request. Updated concurrently while the run is in progress.
+     * 
+     * @author wqian94
+     */
+    public static final class TargetStats {
+        private final LongAdder requests; // Number of requests completed, successfully or not.
+        private final LongAdder errors; // Number of requests that failed or were not 2xx.
+        private final LatencyHistogram responseTime; // From scheduled start to completion.
+        private final LatencyHistogram serviceTime; // From actual start to completion.
+        
+        /**
+         * Creates a new, empty TargetStats.
+         */
+        private TargetStats() {
+            this.requests = new LongAdder();
+            this.errors = new LongAdder();
+            this.responseTime = new LatencyHistogram();
+            this.serviceTime = new LatencyHistogram();
+        }
+        
+        /**
+         * Records a completed request.
+         * 
+         * @param scheduledNanos
+         *            the System.nanoTime() when the request was scheduled to be sent.
+         * @param sentNanos
+         *            the System.nanoTime() when the request was actually sent.
+         * @param doneNanos
+         *            the System.nanoTime() when the response was fully read.
+         * @param ok
+         *            whether the request succeeded with a 2xx response.
+         */
+        void record(final long scheduledNanos, final long sentNanos, final long doneNanos,
+                final boolean ok) {
+            requests.increment();
+            if (!ok) {
+                errors.increment();
+            }
+            responseTime.record(doneNanos - scheduledNanos);
+            serviceTime.record(doneNanos - sentNanos);
+        }
+        
+        /**
+         * Returns the number of requests completed.
+         * 
+         * @return A long, the request count, including errors.
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+        
+        /**
+         * Returns the number of requests that failed or did not receive a 2xx response.
+         * 
+         * @return A long, the error count.
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+        
+        /**
+         * Returns the response times, corrected for coordinated omission.
+         * 
+         * @return A LatencyHistogram, from each request's scheduled start to its completion.
+         */
+        public LatencyHistogram getResponseTime() {
+            return responseTime;
+        }
+        
+        /**
+         * Returns the service times, uncorrected for coordinated omission.
+         * 
+         * @return A LatencyHistogram, from each request's actual start to its completion.
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+    }
+    
+    private final Map<LoadTarget, TargetStats> targets; // The results for each kind of request.
+    private volatile double elapsedSeconds; // The length of the run, once it has finished.
+    
+    /**
+     * Creates a new, empty LoadReport.
+     */
+    LoadReport() {
+        final Map<LoadTarget, TargetStats> targets = new EnumMap<>(LoadTarget.class);
+        for (final LoadTarget target : LoadTarget.values()) {
+            targets.put(target, new TargetStats());
+        }
+        this.targets = Collections.unmodifiableMap(targets);
+        this.elapsedSeconds = 0;
+    }
+    
+    /**
+     * Returns the results for a kind of request.
+     * 
+     * @param target
+     *            the kind of request.
+     * @return A TargetStats, the results for that kind of request.
+     */
+    public TargetStats get(final LoadTarget target) {
+        return targets.get(target);
+    }
+    
+    /**
+     * Marks the end of the run.
+     * 
+     * @param elapsedSeconds
+     *            the length of the run, in seconds.
+     */
+    void finish(final double elapsedSeconds) {
+        this.elapsedSeconds = elapsedSeconds;
+    }
+    
+    /**
+     * Returns the length of the run.
+     * 
+     * @return A double, the length of the run in seconds.
+     */
+    public double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+    
+    /**
+     * Returns the number of requests completed across all kinds of request.
+     * 
+     * @return A long, the request count, including errors.
+     */
+    public long getRequests() {
+        long requests = 0;
+        for (final TargetStats stats : targets.values()) {
+            requests += stats.getRequests();
+        }
+        return requests;
+    }
+    
+    /**
+     * Returns the number of failed requests across all kinds of request.
+     * 
+     * @return A long, the error count.
+     */
+    public long getErrors() {
+        long errors = 0;
+        for (final TargetStats stats : targets.values()) {
+            errors += stats.getErrors();
+        }
+        return errors;
+    }
+    
+    /**
+     * Returns the rate at which requests completed over the run.
+     * 
+     * @return A double, the number of requests completed per second.
+     */
+    public double getThroughput() {
+        return 0 == elapsedSeconds ? 0 : getRequests() / elapsedSeconds;
+    }
+    
+    /**
+     * Renders the report as a table, with a row per kind of request that was sent.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%d requests, %d errors in %.3f s (%.1f/s)%n",
+                getRequests(), getErrors(), elapsedSeconds, getThroughput()));
+        report.append(String.format(Locale.ROOT, "%-12s %9s %7s %9s %9s %9s %9s %9s%n", "target",
+                "requests", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms", "svc p99"));
+        for (final Map.Entry<LoadTarget, TargetStats> entry : targets.entrySet()) {
+            final TargetStats stats = entry.getValue();
+            if (0 == stats.getRequests()) {
+                continue;
+            }
+            final LatencyHistogram response = stats.getResponseTime();
+            report.append(String.format(Locale.ROOT,
+                    "%-12s %9d %7d %9.3f %9.3f %9.3f %9.3f %9.3f%n", entry.getKey(),
+                    stats.getRequests(), stats.getErrors(), response.getPercentileMillis(50),
+                    response.getPercentileMillis(99), response.getPercentileMillis(99.9),
+                    response.getMaxMillis(), stats.getServiceTime().getPercentileMillis(99)));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package load;
+
+/**
+ * enum LoadTarget
+ * 
+ * The kinds of request that LoadGenerator sends to an AuoServer.
+ * 
+ * @author wqian94
+ */
+public enum LoadTarget {
+    TEST_PAGE("GET"), AUO_JS("GET"), SAVE("POST"), STATIC_FILE("GET");
+    
+    private final String method; // The HTTP method used for this kind of request.
+    
+    /**
+     * Creates a new LoadTarget.
+     * 
+     * @param method
+     *            the HTTP method used for this kind of request.
+     */
+    private LoadTarget(final String method) {
+        this.method = method;
+    }
+    
+    /**
+     * Returns the HTTP method used for this kind of request.
+     * 
+     * @return A String, e.g. "GET".
+     */
+    public String getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,143 @@
+package server;
+
+/**
+ * class AudioAnalysis
+ * 
+ * An immutable summary of the audio in a saved recording: its format, its length, and how loud it
+ * is.
+ * 
+ * @author wqian94
+ */
+public final class AudioAnalysis {
+    private final String format; // The name of the container format, e.g. "wav".
+    private final int sampleRate; // The number of frames per second.
+    private final int channels; // The number of channels per frame.
+    private final int bitsPerSample; // The number of bits in each sample.
+    private final long frames; // The number of complete frames in the recording.
+    private final double peak; // The largest absolute sample value, from 0 to 1.
+    private final double rms; // The root mean square of all samples, from 0 to 1.
+    private final long silentFrames; // The number of frames in which every sample is silent.
+    
+    /**
+     * Creates a new AudioAnalysis.
+     * 
+     * @param format
+     *            the name of the container format.
+     * @param sampleRate
+     *            the number of frames per second.
+     * @param channels
+     *            the number of channels per frame.
+     * @param bitsPerSample
+     *            the number of bits in each sample.
+     * @param frames
+     *            the number of complete frames in the recording.
+     * @param peak
+     *            the largest absolute sample value, normalized to the range [0, 1].
+     * @param rms
+     *            the root mean square of all samples, normalized to the range [0, 1].
+     * @param silentFrames
+     *            the number of frames in which every sample is below the silence threshold.
+     */
+    AudioAnalysis(final String format, final int sampleRate, final int channels,
+            final int bitsPerSample, final long frames, final double peak, final double rms,
+            final long silentFrames) {
+        this.format = format;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.frames = frames;
+        this.peak = peak;
+        this.rms = rms;
+        this.silentFrames = silentFrames;
+    }
+    
+    /**
+     * Returns the container format of the recording.
+     * 
+     * @return A String, the lowercase name of the format, e.g. "wav".
+     */
+    public String getFormat() {
+        return format;
+    }
+    
+    /**
+     * Returns the sample rate of the recording.
+     * 
+     * @return An int, the number of frames per second.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    /**
+     * Returns the number of channels in the recording.
+     * 
+     * @return An int, the number of channels per frame.
+     */
+    public int getChannels() {
+        return channels;
+    }
+    
+    /**
+     * Returns the sample size of the recording.
+     * 
+     * @return An int, the number of bits in each sample.
+     */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+    
+    /**
+     * Returns the length of the recording in frames.
+     * 
+     * @return A long, the number of complete frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+    
+    /**
+     * Returns the length of the recording in seconds.
+     * 
+     * @return A double, the duration in seconds.
+     */
+    public double getDurationSeconds() {
+        return 0 == sampleRate ? 0 : (double) frames / sampleRate;
+    }
+    
+    /**
+     * Returns the peak amplitude of the recording.
+     * 
+     * @return A double, the largest absolute sample value, from 0 (silence) to 1 (full scale).
+     */
+    public double getPeak() {
+        return peak;
+    }
+    
+    /**
+     * Returns the root mean square amplitude of the recording, across all channels.
+     * 
+     * @return A double, from 0 (silence) to 1 (full scale).
+     */
+    public double getRms() {
+        return rms;
+    }
+    
+    /**
+     * Returns the fraction of the recording that is silent, where a frame is silent if every
+     * sample in it is below WavAnalyzer.SILENCE_THRESHOLD (about -60 dBFS).
+     * 
+     * @return A double, from 0 (no silence) to 1 (complete silence). An empty recording is
+     *         considered completely silent.
+     */
+    public double getSilenceRatio() {
+        return 0 == frames ? 1 : (double) silentFrames / frames;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("AudioAnalysis[%s, %d Hz, %d ch, %d bit, %.3f s, "
+                + "peak=%.4f, rms=%.4f, silence=%.3f]", format, sampleRate, channels,
+                bitsPerSample, getDurationSeconds(), peak, rms, getSilenceRatio());
+    }
+}
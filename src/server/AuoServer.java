@@ -1,45 +1,94 @@
 package server;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 /**
  * class AuoServer
  * 
- * This launches a Jetty server to serve an AuO standalone application at its root. Uses SSL to
- * enable the use of the Web Audio API.
+ * This launches a Jetty server to serve an AuO standalone application at its root. Can use TLS,
+ * with HTTP/2 where available, to enable the use of the Web Audio API.
  * 
  * @author wqian94
  */
 public class AuoServer extends AbstractHandler {
     public static final String SAVE_OK_RESPONSE = "Save acknowledged.";
+    public static final long DEFAULT_CACHE_BUDGET = ContentCache.DEFAULT_BUDGET;
+    public static final long DEFAULT_SAVE_LIMIT = 1L << 30; // 1 GiB, over an hour of WAV audio.
+    
+    private static final int MAX_SAVE_RECORDS = 1024; // Number of most recent saves to keep.
+    
+    private static final int DEFAULT_MIN_THREADS = 8; // Jetty's default minimum pool size.
+    private static final int DEFAULT_MAX_THREADS = 200; // Jetty's default maximum pool size.
+    private static final int THREAD_IDLE_TIMEOUT_MILLIS = 60000; // Before idle threads exit.
     
     private static final String TEST_URL = "TEST"; // The special-cased test page URL.
+    private static final String SAVE_URL = TEST_URL + "-SAVE"; // The special-cased save URL.
+    private static final String STOP_URL = "STOP"; // The special-cased stop URL.
+    private static final String METRICS_URL = "METRICS"; // The special-cased metrics URL.
     private static final String LIB_FILE = "AuO.js"; // The library file to use.
     
     private final String path; // Relative path to the root of the AuO.js file.
     private final Server server; // The Jetty Server that's backing the AuO server.
+    private final boolean secure; // Whether the server is served over TLS.
+    private final ContentCache contentCache; // Cache of the files other than AuO.js.
+    private final Router router; // Routes for the special-cased URLs.
+    private final ServerMetrics metrics; // Counters of the requests this server has handled.
+    private final ServerMetrics.RouteMetrics filesMetrics; // Counters for served files.
+    private final ServerMetrics.RouteMetrics notFoundMetrics; // Counters for unmatched requests.
+    private final Map<String, FaultPolicy> faultPolicies; // Fault policies by route URL.
+    private final TimerWheel faultTimer; // Schedules delayed and throttled responses.
+    
+    private final FileWatcher auoJsWatcher; // Watches for changes to AuO.js, or null if unable.
+    private final AtomicBoolean auoJsReloading; // Whether a reload of AuO.js is in progress.
     
-    private String auoJS; // Server-cached value of the AuO.js file.
-    private long auoJsModified; // Server-cached last modification time of the AuO.js file.
+    private volatile CachedContent auoJs; // Server-cached contents of the AuO.js file.
+    private volatile boolean auoJsStale; // Whether AuO.js has changed since the last reload began.
+    
+    private final Deque<SaveRecord> saves; // The most recent saves, oldest first.
+    private volatile long saveLimit; // The maximum size of a save, in bytes.
+    private volatile File saveSpoolDirectory; // Directory to spool saves to, or null to not spool.
+    private volatile SaveJournal saveJournal; // Journal to append saves to, or null.
     
     private volatile ServerState state; // The current state of the server: RUNNING or STOPPED.
     
     /**
-     * Launches a new Jetty server for the AuO standalone application, with SSL enabled. Requires
-     * the path (absolute or relative) to AuO.js file to be served and a port for the server.
+     * Launches a new Jetty server for the AuO standalone application, over plain HTTP. Requires
+     * the path (absolute or relative) to AuO.js file to be served and a port for the server. Files
+     * other than AuO.js are cached on the heap, up to DEFAULT_CACHE_BUDGET bytes.
      * 
      * @param path
      *            the absolute or relative path to the AuO.js file.
@@ -51,15 +100,103 @@ public class AuoServer extends AbstractHandler {
      *             if an error occurs when starting the server.
      */
     public static AuoServer start(final String path, final int port) {
-        final Server server = new Server(port);
-        final AuoServer auoServer = new AuoServer(path, server);
-        server.setHandler(auoServer);
-        try {
-            server.start();
-            auoServer.onStart();
-        } catch (Exception exp) {
-            throw new RuntimeException(exp);
-        }
+        return start(path, port, DEFAULT_CACHE_BUDGET, false);
+    }
+    
+    /**
+     * Launches a new Jetty server for the AuO standalone application, over plain HTTP. Requires
+     * the path (absolute or relative) to AuO.js file to be served, a port for the server, and the
+     * configuration of the cache for the other files under the path.
+     * 
+     * @param path
+     *            the absolute or relative path to the AuO.js file.
+     * @param port
+     *            the port to use for the server. A value of 0 results in a randomly-chosen open
+     *            port.
+     * @param cacheBudget
+     *            the maximum number of bytes of served files to hold in memory. Files larger than a
+     *            quarter of the budget are always read from disk. A value of 0 disables caching.
+     * @param offHeap
+     *            whether to hold cached files in direct buffers outside of the Java heap.
+     * @return An instance of AuoServer if the construction and start succeeded.
+     * @throws RuntimeException
+     *             if an error occurs when starting the server.
+     */
+    public static AuoServer start(final String path, final int port, final long cacheBudget,
+            final boolean offHeap) {
+        return builder(path).port(port).cacheBudget(cacheBudget, offHeap).start();
+    }
+    
+    /**
+     * Launches a new Jetty server for the AuO standalone application over TLS, using a generated
+     * self-signed certificate for localhost. HTTP/2 is offered through ALPN when the JVM supports
+     * it, and HTTP/1.1 otherwise. Files other than AuO.js are cached on the heap, up to
+     * DEFAULT_CACHE_BUDGET bytes.
+     * 
+     * @param path
+     *            the absolute or relative path to the AuO.js file.
+     * @param port
+     *            the port to use for the server. A value of 0 results in a randomly-chosen open
+     *            port.
+     * @return An instance of AuoServer if the construction and start succeeded.
+     * @throws RuntimeException
+     *             if an error occurs when starting the server.
+     */
+    public static AuoServer startSecure(final String path, final int port) {
+        return startSecure(path, port, null, null);
+    }
+    
+    /**
+     * Launches a new Jetty server for the AuO standalone application over TLS, using the
+     * certificate in the given keystore. HTTP/2 is offered through ALPN when the JVM supports it,
+     * and HTTP/1.1 otherwise. Files other than AuO.js are cached on the heap, up to
+     * DEFAULT_CACHE_BUDGET bytes.
+     * 
+     * @param path
+     *            the absolute or relative path to the AuO.js file.
+     * @param port
+     *            the port to use for the server. A value of 0 results in a randomly-chosen open
+     *            port.
+     * @param keyStore
+     *            the JKS keystore holding the server's certificate, or null to use a generated
+     *            self-signed certificate for localhost.
+     * @param password
+     *            the password of the keystore and its key.
+     * @return An instance of AuoServer if the construction and start succeeded.
+     * @throws RuntimeException
+     *             if an error occurs when starting the server.
+     */
+    public static AuoServer startSecure(final String path, final int port, final File keyStore,
+            final String password) {
+        return builder(path).port(port).secure(keyStore, password).start();
+    }
+    
+    /**
+     * Creates a Builder for an AuoServer, for when the server's threading, connector, or cache
+     * needs configuring beyond what the start methods offer. Unset options take Jetty's defaults.
+     * 
+     * @param path
+     *            the absolute or relative path to the AuO.js file.
+     * @return A Builder, which launches the server when its start() method is called.
+     */
+    public static Builder builder(final String path) {
+        return new Builder(path);
+    }
+    
+    /**
+     * Creates an AuoServer that is marked as running but has no Jetty server listening for it, so
+     * that requests can be passed to handle() directly. Used to benchmark the handler in
+     * isolation from the network.
+     * 
+     * @param path
+     *            the absolute or relative path to the AuO.js file.
+     * @param contentCache
+     *            the cache to serve files other than AuO.js from.
+     * @return An AuoServer, which must be terminated to stop its file watcher and timer threads.
+     */
+    static AuoServer createDetached(final String path, final ContentCache contentCache) {
+        final AuoServer auoServer = new AuoServer(path, new Server(), false, contentCache);
+        auoServer.state = ServerState.RUNNING;
         return auoServer;
     }
     
@@ -71,35 +208,79 @@ public class AuoServer extends AbstractHandler {
      *            the absolute or relative path to the AuO.js file.
      * @param server
      *            the Jetty Server object encapsulating this server.
+     * @param secure
+     *            whether the server is served over TLS.
+     * @param contentCache
+     *            the cache to serve files other than AuO.js from.
      */
-    private AuoServer(final String path, final Server server) {
+    private AuoServer(final String path, final Server server, final boolean secure,
+            final ContentCache contentCache) {
         this.path = path;
         this.server = server;
+        this.secure = secure;
+        this.contentCache = contentCache;
+        this.router = new Router();
+        this.metrics = new ServerMetrics();
+        this.filesMetrics = metrics.forRoute(ServerMetrics.FILES_ROUTE);
+        this.notFoundMetrics = metrics.forRoute(ServerMetrics.NOT_FOUND_ROUTE);
+        this.faultPolicies = new ConcurrentHashMap<>();
+        this.faultTimer = new TimerWheel("AuoServer-faults", TimerWheel.DEFAULT_TICK_MILLIS,
+                TimerWheel.DEFAULT_WHEEL_SIZE);
+        this.saves = new ArrayDeque<>();
+        this.saveLimit = DEFAULT_SAVE_LIMIT;
+        this.saveSpoolDirectory = null;
+        this.saveJournal = null;
         this.state = ServerState.STOPPED;
-        auoJsModified = -1;
+        this.auoJsReloading = new AtomicBoolean(false);
+        
+        final Path auoJsPath = Paths.get(path, LIB_FILE).toAbsolutePath().normalize();
+        reloadAuoJs();
+        this.auoJsWatcher = watchAuoJs(auoJsPath);
+        
+        addBuiltInRoutes();
+    }
+    
+    /**
+     * Starts watching the directory containing AuO.js, so that the cache is refreshed as soon as
+     * the file changes, without requests having to check the filesystem.
+     * 
+     * @param auoJsPath
+     *            the absolute path to the AuO.js file.
+     * @return A FileWatcher for the directory, or null if the directory cannot be watched.
+     */
+    private FileWatcher watchAuoJs(final Path auoJsPath) {
         try {
-            cacheAuoJs();
-        } catch (Exception exp) {
-            exp.printStackTrace();
+            return FileWatcher.watch(auoJsPath.getParent(), (changed) -> {
+                if (null == changed || auoJsPath.equals(changed)) {
+                    reloadAuoJs();
+                }
+            });
+        } catch (IOException exp) {
+            Log.log(Log.ERROR, "Unable to watch %s for changes: %s", auoJsPath, exp);
+            return null;
         }
     }
     
     /**
-     * Caches the AuO.js file if it has been modified since the last cache. Is thread-safe.
-     * 
-     * @throws IOException
-     *             if an error occurs during the reading of the AuO.js file to cache.
-     */
-    private synchronized void cacheAuoJs() throws IOException {
-        final long lastModified = new File(path + LIB_FILE).lastModified();
-        if (lastModified > auoJsModified) {
-            final StringBuilder auoJsBuilder = new StringBuilder();
-            final BufferedReader fin = new BufferedReader(new FileReader(path + LIB_FILE));
-            fin.lines().forEachOrdered(line -> auoJsBuilder.append(line + "\n"));
-            fin.close();
-            
-            auoJS = auoJsBuilder.toString();
-            auoJsModified = lastModified;
+     * Reloads the cached AuO.js file. Is thread-safe and single-flight: if a reload is already in
+     * progress, this marks the cache as stale and returns immediately, and the reload in progress
+     * will run again once it finishes. Requests never block on a reload, and keep seeing the
+     * previous contents until the new ones are ready.
+     */
+    private void reloadAuoJs() {
+        auoJsStale = true;
+        while (auoJsStale && auoJsReloading.compareAndSet(false, true)) {
+            try {
+                auoJsStale = false;
+                auoJs = CachedContent.load(new File(path + LIB_FILE),
+                        "application/javascript; charset=utf-8");
+                metrics.countAuoJsReload(true);
+            } catch (IOException exp) {
+                Log.log(Log.ERROR, "Failed to cache %s: %s", LIB_FILE, exp);
+                metrics.countAuoJsReload(false);
+            } finally {
+                auoJsReloading.set(false);
+            }
         }
     }
     
@@ -108,16 +289,19 @@ public class AuoServer extends AbstractHandler {
      */
     private void onStart() {
         this.state = ServerState.RUNNING;
-        Log.log(Log.INFO, "Server running in localhost on port %d.", getPort());
+        Log.log(Log.INFO, "Server running in localhost on port %d%s.", getPort(),
+                secure ? " over TLS" : "");
     }
     
     /**
      * Returns the port that this server is running on.
      * 
-     * @return An int, the port that this server is running on.
+     * @return An int, the port that this server is running on, or 0 if it has no connector, as
+     *         when created detached.
      */
     public int getPort() {
-        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        final Connector[] connectors = server.getConnectors();
+        return 0 == connectors.length ? 0 : ((ServerConnector) connectors[0]).getLocalPort();
     }
     
     /**
@@ -126,7 +310,7 @@ public class AuoServer extends AbstractHandler {
      * @return A String, the URL for the root of this server.
      */
     public String getURL() {
-        return String.format("http://localhost:%d/", getPort());
+        return String.format("%s://localhost:%d/", secure ? "https" : "http", getPort());
     }
     
     /**
@@ -149,24 +333,150 @@ public class AuoServer extends AbstractHandler {
             HttpServletResponse response) throws IOException, ServletException {
         // If server has been logically stopped, send a 404: File not found.
         if (ServerState.STOPPED == state) {
+            metrics.begin(request, notFoundMetrics);
             response.setContentType("text/html; charset=utf-8");
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             baseRequest.setHandled(true);
             return;
         }
         
-        // Reformat the target string a little.
-        target = target.replaceAll("/+", "/"); // Removes all duplicate slashes.
-        target = target.replaceAll("^/*", ""); // Removes initial slash from the target.
+        final Route route = router.lookup(target);
+        final String handledBy; // What handled the request, for tracing.
+        if (null != route) {
+            handledBy = "route";
+            route.handle(request, response);
+        } else {
+            final ContentCache.Entry entry = contentCache.lookup(Router.normalize(target));
+            if (null != entry) {
+                handledBy = "file";
+                metrics.begin(request, filesMetrics);
+                sendEntry(entry, response);
+            } else { // Send a 404: File not found.
+                handledBy = "not found";
+                metrics.begin(request, notFoundMetrics);
+                response.setContentType("text/html; charset=utf-8");
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
         
-        if ("stop".equalsIgnoreCase(target)) {
-            terminate();
-            return;
-        } else if (TEST_URL.equals(target)) { // Generates testing AuO HTML page.
-            response.setContentType("text/html; charset=utf-8");
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().write(
-                    // @formatter:off
+        // Checked first, since this is the hot path and the entry is almost always disabled.
+        if (Log.TRACE.isEnabled()) {
+            Log.log(Log.TRACE, "%s %s handled by %s.", request.getMethod(), target, handledBy);
+        }
+        
+        // Tell Jetty that we have handled this request.
+        baseRequest.setHandled(true);
+    }
+    
+    /**
+     * Registers a route on this server, replacing any route already registered for the same URL
+     * with the same case sensitivity. Like the built-in routes, the URL is relative to the root of
+     * the server, and leading and duplicate slashes are ignored. Case-sensitive routes take
+     * precedence over case-insensitive ones, and all routes take precedence over served files.
+     * Routes may be added while the server is running, and are counted in the metrics under their
+     * normalized URL. Requests to the route are subject to the fault policy set for that URL.
+     * 
+     * @param url
+     *            the URL of the route, e.g. "TEST".
+     * @param caseSensitive
+     *            whether the URL must match case-sensitively.
+     * @param route
+     *            the Route to handle requests to the URL.
+     */
+    public void addRoute(final String url, final boolean caseSensitive, final Route route) {
+        final String normalized = Router.normalize(url);
+        final ServerMetrics.RouteMetrics routeMetrics = metrics.forRoute(normalized);
+        router.add(url, caseSensitive, (request, response) -> {
+            metrics.begin(request, routeMetrics);
+            final FaultPolicy policy = faultPolicies.get(normalized);
+            if (null == policy) {
+                route.handle(request, response);
+            } else {
+                FaultInjector.handle(policy, faultTimer, route, request, response);
+            }
+        });
+    }
+    
+    /**
+     * Removes a route from this server, including any of the built-in routes.
+     * 
+     * @param url
+     *            the URL of the route.
+     * @param caseSensitive
+     *            the case sensitivity that the route was registered with.
+     * @return A boolean, whether a route was removed.
+     */
+    public boolean removeRoute(final String url, final boolean caseSensitive) {
+        return router.remove(url, caseSensitive);
+    }
+    
+    /**
+     * Sets the faults to inject into requests to a route, e.g. to simulate a slow link when loading
+     * AuO.js or a flaky one when saving. Takes effect for requests that arrive afterwards, and
+     * applies whether or not a route is registered for the URL yet.
+     * 
+     * @param url
+     *            the URL of the route, as it was registered, e.g. "TEST-SAVE" or "AuO.js".
+     * @param policy
+     *            the faults to inject, or null or FaultPolicy.NONE to inject none.
+     */
+    public void setFaultPolicy(final String url, final FaultPolicy policy) {
+        final String normalized = Router.normalize(url);
+        if (null == policy || !policy.isActive()) {
+            faultPolicies.remove(normalized);
+        } else {
+            faultPolicies.put(normalized, policy);
+            Log.log(Log.INFO, "Injecting faults into /%s: %s", normalized, policy);
+        }
+    }
+    
+    /**
+     * Returns the faults being injected into requests to a route.
+     * 
+     * @param url
+     *            the URL of the route, as it was registered.
+     * @return A FaultPolicy, which is FaultPolicy.NONE if none has been set.
+     */
+    public FaultPolicy getFaultPolicy(final String url) {
+        final FaultPolicy policy = faultPolicies.get(Router.normalize(url));
+        return null != policy ? policy : FaultPolicy.NONE;
+    }
+    
+    /**
+     * Stops injecting faults into requests to every route.
+     */
+    public void clearFaultPolicies() {
+        faultPolicies.clear();
+    }
+    
+    /**
+     * Registers the built-in routes: the test page, the save URL, AuO.js, the metrics, and the stop
+     * URL.
+     */
+    private void addBuiltInRoutes() {
+        addRoute(STOP_URL, false, (request, response) -> terminate());
+        addRoute(METRICS_URL, false, this::handleMetrics);
+        addRoute(TEST_URL, true, this::handleTestPage);
+        addRoute(SAVE_URL, true, this::handleSave);
+        addRoute(LIB_FILE, false, this::handleAuoJs);
+    }
+    
+    /**
+     * Generates the testing AuO HTML page.
+     * 
+     * @param request
+     *            the request for the page.
+     * @param response
+     *            the response to write the page to.
+     * @throws IOException
+     *             if an error occurs while writing the page.
+     */
+    private void handleTestPage(final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        response.setContentType("text/html; charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write(
+                // @formatter:off
   "<html>"
 + "<head>"
 + "<script type=\"application/javascript\" src=\"AuO.js\"></script>"
@@ -177,52 +487,254 @@ public class AuoServer extends AbstractHandler {
 + "</script>"
 + "</body>"
 + "</html>"
-                    // @formatter:on
-            );
-        } else if ((TEST_URL + "-SAVE").equals(target)) { // Generates responses to save requests.
-            response.setContentType("text/plain; charset=utf-8");
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().write(SAVE_OK_RESPONSE);
-        } else if (LIB_FILE.equalsIgnoreCase(target)) {
-            cacheAuoJs();
-            response.setContentType("application/javascript; charset=utf-8");
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().write(auoJS);
-        } else {
-            // Prepare to write document body.
-            final PrintWriter out = response.getWriter();
-            
-            // Search for files down a list of priorities.
-            final String[] suffices = { "", "/index.php", "/index.html" };
-            File targetFile = null;
-            for (final String suffix : suffices) {
-                final String filePath = (path + target + suffix).replaceAll("/+", "/");
-                final File file = new File(filePath);
-                
-                // Select the file and exit the loop.
-                if (file.isFile()) {
-                    targetFile = file;
-                    break;
-                }
+                // @formatter:on
+        );
+    }
+    
+    /**
+     * Generates responses to save requests, once the body of the request has been consumed
+     * asynchronously.
+     * 
+     * @param request
+     *            the save request.
+     * @param response
+     *            the response to write the acknowledgement to.
+     * @throws IOException
+     *             if an error occurs while reading the save or writing the acknowledgement.
+     */
+    private void handleSave(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        SaveIngestor.ingest(request, response, saveLimit, saveSpoolDirectory, saveJournal,
+                this::recordSave);
+    }
+    
+    /**
+     * Records a completed save, discarding the oldest record if too many are kept.
+     * 
+     * @param save
+     *            the record of the completed save.
+     */
+    private void recordSave(final SaveRecord save) {
+        synchronized (saves) {
+            saves.addLast(save);
+            if (saves.size() > MAX_SAVE_RECORDS) {
+                saves.removeFirst();
             }
+        }
+        Log.log(Log.INFO, "Received save: %s", save);
+    }
+    
+    /**
+     * Returns the saves that this server has received in full, oldest first. Only the most recent
+     * saves are kept.
+     * 
+     * @return A List<SaveRecord>, a snapshot of the received saves.
+     */
+    public List<SaveRecord> getSaves() {
+        synchronized (saves) {
+            return new ArrayList<>(saves);
+        }
+    }
+    
+    /**
+     * Returns the most recent save that this server has received in full.
+     * 
+     * @return A SaveRecord, or null if no save has been received.
+     */
+    public SaveRecord getLastSave() {
+        synchronized (saves) {
+            return saves.peekLast();
+        }
+    }
+    
+    /**
+     * Sets the maximum size of the saves that this server accepts. Larger saves are rejected with
+     * a 413 (Request Entity Too Large) response. Defaults to DEFAULT_SAVE_LIMIT.
+     * 
+     * @param limit
+     *            the maximum size of a save, in bytes.
+     */
+    public void setSaveLimit(final long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Save limit must be non-negative: " + limit);
+        }
+        this.saveLimit = limit;
+    }
+    
+    /**
+     * Sets the directory that this server spools the bodies of saves to. Each save is written to
+     * its own file, named in SaveRecord.getSpoolFile(), which is left for the caller to delete.
+     * Spooling is disabled by default.
+     * 
+     * @param directory
+     *            the directory to spool to, or null to disable spooling.
+     */
+    public void setSaveSpoolDirectory(final File directory) {
+        this.saveSpoolDirectory = directory;
+    }
+    
+    /**
+     * Sets the journal that this server appends saves to, so that they can be replayed later with
+     * SaveReplay. The journal remains owned by the caller, who must close it once the server is
+     * terminated. Journaling is disabled by default.
+     * 
+     * @param journal
+     *            the journal to append to, or null to disable journaling.
+     */
+    public void setSaveJournal(final SaveJournal journal) {
+        this.saveJournal = journal;
+    }
+    
+    /**
+     * Serves the metrics of this server, as JSON if the request asks for it with a format=json
+     * parameter or an Accept header, and as plain text otherwise.
+     * 
+     * @param request
+     *            the request for the metrics.
+     * @param response
+     *            the response to write the metrics to.
+     * @throws IOException
+     *             if an error occurs while writing the metrics.
+     */
+    private void handleMetrics(final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        final String format = request.getParameter("format");
+        final String accept = request.getHeader("Accept");
+        final boolean json = null != format ? "json".equalsIgnoreCase(format)
+                : null != accept && accept.contains("application/json");
+        
+        response.setHeader("Cache-Control", "no-store");
+        response.setContentType(
+                json ? "application/json; charset=utf-8" : "text/plain; charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write(json ? metrics.toJson() : metrics.toText());
+    }
+    
+    /**
+     * Returns the metrics of this server, which are updated live as requests complete.
+     * 
+     * @return A ServerMetrics, the counters of this server.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Serves the cached AuO.js file.
+     * 
+     * @param request
+     *            the request for the file.
+     * @param response
+     *            the response to write the file to.
+     * @throws IOException
+     *             if an error occurs while writing the file.
+     */
+    private void handleAuoJs(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        final CachedContent content = auoJs;
+        metrics.countAuoJs(null != content);
+        if (null != content) {
+            sendCachedContent(content, request, response);
+        } else { // Send a 404: File not found.
+            response.setContentType("text/html; charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+    
+    /**
+     * Writes a file from the content cache as the body of the response, with the Content-Length
+     * set. Files whose contents are not held in memory are memory-mapped and handed to Jetty
+     * directly, so that no bytes are decoded or copied through the heap on the way out.
+     * 
+     * @param entry
+     *            the cache entry for the file to send.
+     * @param response
+     *            the response to write the file to.
+     * @throws IOException
+     *             if an error occurs while reading or sending the file.
+     */
+    private static void sendEntry(final ContentCache.Entry entry,
+            final HttpServletResponse response) throws IOException {
+        response.setContentType(entry.getContentType());
+        response.setStatus(HttpServletResponse.SC_OK);
+        
+        final ByteBuffer content = entry.getContent();
+        if (null != content) {
+            response.setContentLength(content.remaining());
+            sendBuffer(content, response);
+            return;
+        }
+        
+        try (final FileChannel channel =
+                FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            response.setContentLengthLong(size);
             
-            // Read (if possible) and output.
-            if (null != targetFile) {
-                response.setContentType(
-                        Files.probeContentType(targetFile.toPath()) + "; charset=utf-8");
-                response.setStatus(HttpServletResponse.SC_OK);
-                
-                final BufferedReader fin = new BufferedReader(new FileReader(targetFile));
-                fin.lines().forEachOrdered(line -> out.println(line));
-                fin.close();
-            } else { // Send a 404: File not found.
-                response.setContentType("text/html; charset=utf-8");
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            if (size <= Integer.MAX_VALUE) { // Mappable in a single buffer.
+                sendBuffer(channel.map(MapMode.READ_ONLY, 0, size), response);
+            } else {
+                final ServletOutputStream out = response.getOutputStream();
+                if (out instanceof HttpOutput) {
+                    ((HttpOutput) out).sendContent(channel);
+                } else {
+                    channel.transferTo(0, size, Channels.newChannel(out));
+                }
             }
         }
+    }
+    
+    /**
+     * Writes cached content as the body of the response, choosing the gzip-compressed variant if
+     * one exists and the request's Accept-Encoding header allows it.
+     * 
+     * @param content
+     *            the cached content to send.
+     * @param request
+     *            the request being responded to.
+     * @param response
+     *            the response to write the content to.
+     * @throws IOException
+     *             if an error occurs while sending the content.
+     */
+    private static void sendCachedContent(final CachedContent content,
+            final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        final boolean gzipped = content.hasGzip() && CachedContent.acceptsGzip(acceptEncoding);
+        final ByteBuffer body = content.getContent(gzipped);
         
-        // Tell Jetty that we have handled this request.
-        baseRequest.setHandled(true);
+        response.setContentType(content.getContentType());
+        response.setHeader("Vary", "Accept-Encoding");
+        if (gzipped) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(body.remaining());
+        response.setStatus(HttpServletResponse.SC_OK);
+        sendBuffer(body, response);
+    }
+    
+    /**
+     * Writes the remaining bytes of a buffer as the body of the response. When the response is
+     * backed by Jetty, the buffer is handed over without being copied.
+     * 
+     * @param buffer
+     *            the buffer to send, which is consumed.
+     * @param response
+     *            the response to write the buffer to.
+     * @throws IOException
+     *             if an error occurs while sending the buffer.
+     */
+    private static void sendBuffer(final ByteBuffer buffer, final HttpServletResponse response)
+            throws IOException {
+        final ServletOutputStream out = response.getOutputStream();
+        if (out instanceof HttpOutput) {
+            ((HttpOutput) out).sendContent(buffer);
+        } else {
+            final WritableByteChannel channel = Channels.newChannel(out);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
     }
     
     /**
@@ -238,12 +750,18 @@ public class AuoServer extends AbstractHandler {
         state = ServerState.STOPPED;
         
         try {
+            if (null != auoJsWatcher) {
+                auoJsWatcher.close();
+            }
+            faultTimer.close();
             server.stop();
             server.getThreadPool().join();
             Log.log(Log.INFO, "Terminated server running in localhost:%d.", port);
         } catch (Exception exp) {
             Log.log(Log.ERROR, "Failed to terminate server running in localhost:%d.", port);
             throw new RuntimeException(exp);
+        } finally {
+            Log.flush();
         }
     }
     
@@ -256,4 +774,246 @@ public class AuoServer extends AbstractHandler {
         final AuoServer server = AuoServer.start("../lib/", 4444);
         server.terminate(); // Comment this line out if you want a living server.
     }
+    
+    /**
+     * class Builder
+     * 
+     * Configures and launches an AuoServer. Each option returns the Builder, so that options can
+     * be chained, and start() launches the server. By default, the server runs over plain HTTP on
+     * a randomly-chosen port, with Jetty's default thread pool and connector.
+     * 
+     * @author wqian94
+     */
+    public static final class Builder {
+        private static final int DEFAULT = -1; // Marks an option left to Jetty's default.
+        
+        private final String path; // The absolute or relative path to the AuO.js file.
+        private int port; // The port to run on, or 0 for a randomly-chosen open port.
+        private int minThreads; // The minimum number of pool threads, or DEFAULT.
+        private int maxThreads; // The maximum number of pool threads, or DEFAULT.
+        private int queueCapacity; // The maximum number of queued jobs, or DEFAULT if unbounded.
+        private int acceptors; // The number of acceptor threads, or DEFAULT.
+        private int selectors; // The number of selector threads, or DEFAULT.
+        private boolean virtualThreads; // Whether to run on virtual threads instead of a pool.
+        private long cacheBudget; // The number of bytes of served files to hold in memory.
+        private boolean offHeap; // Whether to hold cached files outside of the Java heap.
+        private boolean secure; // Whether to serve over TLS.
+        private File keyStore; // The keystore for TLS, or null to use a self-signed certificate.
+        private String password; // The password of the keystore.
+        
+        /**
+         * Creates a new Builder.
+         * 
+         * @param path
+         *            the absolute or relative path to the AuO.js file.
+         */
+        private Builder(final String path) {
+            this.path = path;
+            this.port = 0;
+            this.minThreads = DEFAULT;
+            this.maxThreads = DEFAULT;
+            this.queueCapacity = DEFAULT;
+            this.acceptors = DEFAULT;
+            this.selectors = DEFAULT;
+            this.virtualThreads = false;
+            this.cacheBudget = DEFAULT_CACHE_BUDGET;
+            this.offHeap = false;
+            this.secure = false;
+            this.keyStore = null;
+            this.password = null;
+        }
+        
+        /**
+         * Sets the port for the server.
+         * 
+         * @param port
+         *            the port to use for the server. A value of 0 results in a randomly-chosen
+         *            open port.
+         * @return This Builder.
+         */
+        public Builder port(final int port) {
+            if (port < 0) {
+                throw new IllegalArgumentException("Port must be non-negative: " + port);
+            }
+            this.port = port;
+            return this;
+        }
+        
+        /**
+         * Sets the size of the server's thread pool. Each request in progress, including each
+         * save upload that is waiting for more of its body, holds a thread only while it is
+         * actually being processed, but acceptor and selector threads are taken from the pool
+         * permanently.
+         * 
+         * @param minThreads
+         *            the number of threads to keep even when idle.
+         * @param maxThreads
+         *            the most threads to run at once.
+         * @return This Builder.
+         */
+        public Builder threads(final int minThreads, final int maxThreads) {
+            if (minThreads < 0 || maxThreads < 1 || minThreads > maxThreads) {
+                throw new IllegalArgumentException(
+                        "Invalid thread bounds: " + minThreads + ", " + maxThreads);
+            }
+            this.minThreads = minThreads;
+            this.maxThreads = maxThreads;
+            return this;
+        }
+        
+        /**
+         * Bounds the queue of jobs waiting for a pool thread. When the queue is full, further
+         * jobs are rejected, and Jetty closes their connections, rather than letting the backlog
+         * grow without limit. The queue is unbounded by default.
+         * 
+         * @param capacity
+         *            the most jobs to queue.
+         * @return This Builder.
+         */
+        public Builder queueCapacity(final int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+            }
+            this.queueCapacity = capacity;
+            return this;
+        }
+        
+        /**
+         * Sets the number of acceptor threads, which accept new connections, and selector threads,
+         * which watch open connections for activity.
+         * 
+         * @param acceptors
+         *            the number of acceptor threads, or -1 for Jetty's default.
+         * @param selectors
+         *            the number of selector threads, or -1 for Jetty's default.
+         * @return This Builder.
+         */
+        public Builder connectorThreads(final int acceptors, final int selectors) {
+            if (acceptors < DEFAULT || selectors < DEFAULT || 0 == selectors) {
+                throw new IllegalArgumentException(
+                        "Invalid connector threads: " + acceptors + ", " + selectors);
+            }
+            this.acceptors = acceptors;
+            this.selectors = selectors;
+            return this;
+        }
+        
+        /**
+         * Runs the server on a new virtual thread per task instead of on a pool of platform
+         * threads, which removes the limit on concurrent requests. Requires Java 21 or newer; on
+         * older JVMs, the server logs an error and falls back to the thread pool. Overrides the
+         * thread and queue bounds.
+         * 
+         * @param virtualThreads
+         *            whether to use virtual threads.
+         * @return This Builder.
+         */
+        public Builder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+        
+        /**
+         * Configures the cache for the files under the path other than AuO.js.
+         * 
+         * @param cacheBudget
+         *            the maximum number of bytes of served files to hold in memory. Files larger
+         *            than a quarter of the budget are always read from disk. A value of 0 disables
+         *            caching.
+         * @param offHeap
+         *            whether to hold cached files in direct buffers outside of the Java heap.
+         * @return This Builder.
+         */
+        public Builder cacheBudget(final long cacheBudget, final boolean offHeap) {
+            this.cacheBudget = cacheBudget;
+            this.offHeap = offHeap;
+            return this;
+        }
+        
+        /**
+         * Serves over TLS, with HTTP/2 where ALPN is available, as in startSecure.
+         * 
+         * @param keyStore
+         *            the JKS keystore holding the server's certificate, or null to use a generated
+         *            self-signed certificate for localhost.
+         * @param password
+         *            the password of the keystore and its key.
+         * @return This Builder.
+         */
+        public Builder secure(final File keyStore, final String password) {
+            this.secure = true;
+            this.keyStore = keyStore;
+            this.password = password;
+            return this;
+        }
+        
+        /**
+         * Launches the server with the configured options.
+         * 
+         * @return An instance of AuoServer if the construction and start succeeded.
+         * @throws RuntimeException
+         *             if an error occurs when starting the server.
+         */
+        public AuoServer start() {
+            final Server server = new Server(createThreadPool());
+            if (secure) {
+                try {
+                    server.addConnector(TlsConnectors.create(server, acceptors, selectors, port,
+                            keyStore, password));
+                } catch (IOException exp) {
+                    throw new RuntimeException(exp);
+                }
+            } else {
+                final ServerConnector connector = new ServerConnector(server, acceptors, selectors);
+                connector.setPort(port);
+                server.addConnector(connector);
+            }
+            
+            final AuoServer auoServer = new AuoServer(path, server, secure,
+                    new ContentCache(path, cacheBudget, offHeap));
+            server.setHandler(auoServer);
+            server.setRequestLog(auoServer.metrics);
+            try {
+                server.start();
+                auoServer.onStart();
+            } catch (Exception exp) {
+                throw new RuntimeException(exp);
+            }
+            return auoServer;
+        }
+        
+        /**
+         * Creates the thread pool for the server.
+         * 
+         * @return A ThreadPool, either running each task on a new virtual thread or a bounded
+         *         QueuedThreadPool.
+         */
+        private ThreadPool createThreadPool() {
+            if (virtualThreads) {
+                try {
+                    // Looked up reflectively, so that the server still builds for Java 8.
+                    final ExecutorService executor = (ExecutorService) Executors.class
+                            .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    return new ExecutorThreadPool(executor);
+                } catch (ReflectiveOperationException exp) {
+                    Log.log(Log.ERROR, "Virtual threads are unavailable on Java %s, so falling "
+                            + "back to a thread pool.", System.getProperty("java.version"));
+                }
+            }
+            
+            final QueuedThreadPool pool;
+            if (DEFAULT == maxThreads && DEFAULT == queueCapacity) {
+                pool = new QueuedThreadPool();
+            } else {
+                final int max = DEFAULT == maxThreads ? DEFAULT_MAX_THREADS : maxThreads;
+                final int min = DEFAULT == minThreads ? Math.min(DEFAULT_MIN_THREADS, max)
+                        : minThreads;
+                final BlockingQueue<Runnable> queue =
+                        DEFAULT == queueCapacity ? null : new BlockingArrayQueue<>(queueCapacity);
+                pool = new QueuedThreadPool(max, min, THREAD_IDLE_TIMEOUT_MILLIS, queue);
+            }
+            pool.setName("AuoServer");
+            return pool;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * class CachedContent
+ * 
+ * An immutable in-memory copy of a file, held as the raw bytes that go over the wire along with a
+ * gzip-compressed variant. Both are built once when the file is loaded, so serving the content
+ * involves neither charset encoding nor compression.
+ * 
+ * @author wqian94
+ */
+final class CachedContent {
+    private final long lastModified; // Last modification time of the file when it was loaded.
+    private final String contentType; // The Content-Type header value to serve the content with.
+    private final ByteBuffer identity; // The uncompressed bytes of the file.
+    private final ByteBuffer gzip; // The gzip-compressed bytes, or null if compression won't help.
+    
+    /**
+     * Reads a file into memory and precompresses it.
+     * 
+     * @param file
+     *            the file to load.
+     * @param contentType
+     *            the Content-Type header value to serve the content with.
+     * @return A CachedContent holding the contents of the file.
+     * @throws IOException
+     *             if an error occurs while reading the file.
+     */
+    static CachedContent load(final File file, final String contentType) throws IOException {
+        final long lastModified = file.lastModified();
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        return new CachedContent(lastModified, contentType, bytes);
+    }
+    
+    /**
+     * Creates a new CachedContent from the bytes of a file.
+     * 
+     * @param lastModified
+     *            the last modification time of the file that the bytes were read from.
+     * @param contentType
+     *            the Content-Type header value to serve the content with.
+     * @param bytes
+     *            the raw bytes of the file. Must not be modified afterwards.
+     * @throws IOException
+     *             if an error occurs during compression.
+     */
+    private CachedContent(final long lastModified, final String contentType, final byte[] bytes)
+            throws IOException {
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.identity = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        
+        final byte[] compressed = gzip(bytes);
+        this.gzip = compressed.length < bytes.length
+                ? ByteBuffer.wrap(compressed).asReadOnlyBuffer() : null;
+    }
+    
+    /**
+     * Compresses a byte array using gzip.
+     * 
+     * @param bytes
+     *            the bytes to compress.
+     * @return A byte[], the gzip-compressed bytes.
+     * @throws IOException
+     *             if an error occurs during compression.
+     */
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (final GZIPOutputStream out = new GZIPOutputStream(buffer, 8192)) {
+            out.write(bytes);
+        }
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * Determines whether an Accept-Encoding header value permits a gzip-encoded response. Codings
+     * listed with a quality value of zero are treated as refused, and an explicit gzip or x-gzip
+     * entry takes precedence over "*", which only counts when gzip is not listed.
+     * 
+     * @param acceptEncoding
+     *            the value of the Accept-Encoding header, or null if there is none.
+     * @return A boolean, whether the response may be gzip-encoded.
+     */
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (null == acceptEncoding) {
+            return false;
+        }
+        
+        boolean listed = false; // Whether gzip or x-gzip is listed explicitly.
+        boolean accepted = false; // Whether an explicit entry accepts gzip.
+        boolean wildcard = false; // Whether "*" is listed and accepted.
+        for (final String coding : acceptEncoding.split(",")) {
+            final int semicolon = coding.indexOf(';');
+            final String name = (-1 == semicolon ? coding : coding.substring(0, semicolon)).trim();
+            final boolean acceptable =
+                    -1 == semicolon || !isZeroQuality(coding.substring(semicolon + 1));
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                listed = true;
+                accepted |= acceptable;
+            } else if ("*".equals(name)) {
+                wildcard |= acceptable;
+            }
+        }
+        return listed ? accepted : wildcard;
+    }
+    
+    /**
+     * Determines whether the parameters of a coding in an Accept-Encoding header set q=0.
+     * 
+     * @param parameters
+     *            the parameters following the coding name, without the leading semicolon.
+     * @return A boolean, whether the quality value is zero.
+     */
+    private static boolean isZeroQuality(final String parameters) {
+        for (final String parameter : parameters.split(";")) {
+            final String[] pair = parameter.split("=", 2);
+            if (2 == pair.length && "q".equalsIgnoreCase(pair[0].trim())) {
+                try {
+                    return 0 == Double.parseDouble(pair[1].trim());
+                } catch (NumberFormatException exp) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the last modification time of the file when it was loaded.
+     * 
+     * @return A long, the modification time in milliseconds since the epoch.
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+    
+    /**
+     * Returns the Content-Type header value to serve the content with.
+     * 
+     * @return A String, the Content-Type header value.
+     */
+    String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Returns whether a gzip-compressed variant of the content exists.
+     * 
+     * @return A boolean, true if the content is smaller when compressed.
+     */
+    boolean hasGzip() {
+        return null != gzip;
+    }
+    
+    /**
+     * Returns a read-only view of the content, which the caller is free to consume.
+     * 
+     * @param gzipped
+     *            whether to return the gzip-compressed variant. Requires hasGzip().
+     * @return A ByteBuffer, positioned at the start of the requested variant.
+     */
+    ByteBuffer getContent(final boolean gzipped) {
+        return (gzipped ? gzip : identity).duplicate();
+    }
+}
@@ -0,0 +1,324 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * class ContentCache
+ * 
+ * A cache of the files under the served root, keyed by request target. Files are held in memory up
+ * to a byte budget, and the least recently used files are evicted to make room for new ones.
+ * Targets that do not resolve to any file are remembered for a short time, so that repeated 404s
+ * don't search the filesystem either. Lookups are lock-free; only insertions that overflow the
+ * budget take a lock, to evict.
+ * 
+ * Each entry rechecks its file at most once every STALE_CHECK_NANOS, so edits to served files are
+ * picked up within that interval.
+ * 
+ * @author wqian94
+ */
+final class ContentCache {
+    static final long DEFAULT_BUDGET = 64L << 20; // 64 MiB.
+    
+    private static final String[] FILE_SUFFICES = { "", "/index.php", "/index.html" };
+    private static final long STALE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MISS_TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int MAX_MISSES = 4096; // Upper bound on remembered 404s.
+    
+    private final String root; // Relative path to the root of the served files.
+    private final long budget; // Maximum number of bytes of file contents to hold.
+    private final long maxEntryBytes; // Files larger than this are never held in memory.
+    private final boolean direct; // Whether to hold file contents in off-heap buffers.
+    
+    private final Map<String, Entry> entries; // Cached files, by request target.
+    private final Map<String, Long> misses; // Expiry times of remembered 404s, by request target.
+    private final AtomicLong size; // Number of bytes of file contents currently held.
+    
+    /**
+     * class Entry
+     * 
+     * A file resolved from a request target, with its contents if they fit in the cache.
+     */
+    static final class Entry {
+        private final File file; // The resolved file.
+        private final String contentType; // The Content-Type header value to serve the file with.
+        private final long lastModified; // Modification time of the file when it was loaded.
+        private final long length; // Length of the file when it was loaded.
+        private final ByteBuffer content; // The contents of the file, or null if not held.
+        
+        private volatile long checked; // System.nanoTime() of the last staleness check.
+        private volatile long accessed; // System.nanoTime() of the last lookup, for eviction.
+        
+        /**
+         * Creates a new Entry.
+         * 
+         * @param file
+         *            the resolved file.
+         * @param contentType
+         *            the Content-Type header value to serve the file with.
+         * @param lastModified
+         *            the modification time of the file when it was loaded.
+         * @param length
+         *            the length of the file when it was loaded.
+         * @param content
+         *            the contents of the file, or null if they are not held in memory.
+         * @param now
+         *            the current System.nanoTime().
+         */
+        private Entry(final File file, final String contentType, final long lastModified,
+                final long length, final ByteBuffer content, final long now) {
+            this.file = file;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+            this.checked = now;
+            this.accessed = now;
+        }
+        
+        /**
+         * Returns the resolved file.
+         * 
+         * @return A File, the file that the request target resolved to.
+         */
+        File getFile() {
+            return file;
+        }
+        
+        /**
+         * Returns the Content-Type header value to serve the file with.
+         * 
+         * @return A String, the Content-Type header value.
+         */
+        String getContentType() {
+            return contentType;
+        }
+        
+        /**
+         * Returns a read-only view of the contents of the file, which the caller is free to
+         * consume, or null if the file is too large to be held in memory and must be read from
+         * disk.
+         * 
+         * @return A ByteBuffer positioned at the start of the contents, or null.
+         */
+        ByteBuffer getContent() {
+            return null == content ? null : content.duplicate();
+        }
+        
+        /**
+         * Returns the number of bytes of memory that this entry occupies in the cache.
+         * 
+         * @return A long, the size of the held contents, or 0 if the contents are not held.
+         */
+        private long getCachedSize() {
+            return null == content ? 0 : content.capacity();
+        }
+        
+        /**
+         * Returns whether the file has changed since it was loaded. Only checks the filesystem if
+         * the last check was long enough ago.
+         * 
+         * @param now
+         *            the current System.nanoTime().
+         * @return A boolean, true if the file has been modified or removed.
+         */
+        private boolean isStale(final long now) {
+            if (now - checked < STALE_CHECK_NANOS) {
+                return false;
+            }
+            
+            if (!file.isFile() || file.lastModified() != lastModified || file.length() != length) {
+                return true;
+            }
+            checked = now;
+            return false;
+        }
+    }
+    
+    /**
+     * Creates a new, empty ContentCache.
+     * 
+     * @param root
+     *            the absolute or relative path to the root of the served files.
+     * @param budget
+     *            the maximum number of bytes of file contents to hold in memory. Files larger
+     *            than a quarter of the budget are always read from disk.
+     * @param direct
+     *            whether to hold file contents in direct (off-heap) buffers.
+     */
+    ContentCache(final String root, final long budget, final boolean direct) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Cache budget must be non-negative: " + budget);
+        }
+        
+        this.root = root;
+        this.budget = budget;
+        this.maxEntryBytes = Math.min(budget / 4, Integer.MAX_VALUE);
+        this.direct = direct;
+        this.entries = new ConcurrentHashMap<>();
+        this.misses = new ConcurrentHashMap<>();
+        this.size = new AtomicLong(0);
+    }
+    
+    /**
+     * Looks up the file that a request target names, loading it into the cache if needed.
+     * 
+     * @param target
+     *            the normalized target of the request, relative to the served root.
+     * @return An Entry for the file, or null if the target does not name a file.
+     * @throws IOException
+     *             if an error occurs while reading the file.
+     */
+    Entry lookup(final String target) throws IOException {
+        final long now = System.nanoTime();
+        
+        final Entry cached = entries.get(target);
+        if (null != cached) {
+            if (!cached.isStale(now)) {
+                cached.accessed = now;
+                return cached;
+            }
+            remove(target, cached);
+        }
+        
+        final Long missExpiry = misses.get(target);
+        if (null != missExpiry) {
+            if (now - missExpiry < 0) {
+                return null;
+            }
+            misses.remove(target, missExpiry);
+        }
+        
+        final File file = findFile(target);
+        if (null == file) {
+            if (misses.size() >= MAX_MISSES) {
+                misses.clear();
+            }
+            misses.put(target, now + MISS_TTL_NANOS);
+            return null;
+        }
+        
+        final Entry entry = load(file, now);
+        final Entry previous = entries.put(target, entry);
+        size.addAndGet(entry.getCachedSize() - (null == previous ? 0 : previous.getCachedSize()));
+        if (size.get() > budget) {
+            evict();
+        }
+        return entry;
+    }
+    
+    /**
+     * Removes an entry from the cache, if it is still the cached entry for the target.
+     * 
+     * @param target
+     *            the request target that the entry is cached under.
+     * @param entry
+     *            the entry to remove.
+     */
+    private void remove(final String target, final Entry entry) {
+        if (entries.remove(target, entry)) {
+            size.addAndGet(-entry.getCachedSize());
+        }
+    }
+    
+    /**
+     * Evicts the least recently used entries until the cache is within its budget. Holds the
+     * cache's lock, so that concurrent insertions do not all scan the cache at once.
+     */
+    private synchronized void evict() {
+        if (size.get() <= budget) {
+            return; // Another thread has already evicted.
+        }
+        
+        final List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(Comparator.comparingLong((candidate) -> candidate.getValue().accessed));
+        for (final Map.Entry<String, Entry> candidate : candidates) {
+            if (size.get() <= budget) {
+                break;
+            }
+            remove(candidate.getKey(), candidate.getValue());
+        }
+    }
+    
+    /**
+     * Searches for the file that the target names, down the list of priorities in FILE_SUFFICES.
+     * 
+     * @param target
+     *            the normalized target of the request, relative to the served root.
+     * @return A File, the first regular file that matches, or null if there is no such file.
+     */
+    private File findFile(final String target) {
+        for (final String suffix : FILE_SUFFICES) {
+            final File file = new File((root + target + suffix).replaceAll("/+", "/"));
+            
+            // Select the first file that exists.
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Creates an entry for a file, reading its contents into memory if they fit.
+     * 
+     * @param file
+     *            the file to load.
+     * @param now
+     *            the current System.nanoTime().
+     * @return An Entry for the file.
+     * @throws IOException
+     *             if an error occurs while reading the file.
+     */
+    private Entry load(final File file, final long now) throws IOException {
+        final long lastModified = file.lastModified();
+        final String contentType = getContentType(file.toPath());
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length > maxEntryBytes) {
+                return new Entry(file, contentType, lastModified, length, null, now);
+            }
+            
+            final ByteBuffer content = direct ? ByteBuffer.allocateDirect((int) length)
+                    : ByteBuffer.allocate((int) length);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // Keep reading until the buffer is full or the file ends.
+            }
+            content.flip();
+            return new Entry(file, contentType, lastModified, length, content.asReadOnlyBuffer(),
+                    now);
+        }
+    }
+    
+    /**
+     * Determines the Content-Type header value for a file. Only textual types carry a charset.
+     * 
+     * @param file
+     *            the path of the file to determine the type of.
+     * @return A String, the value to use for the Content-Type header.
+     * @throws IOException
+     *             if an error occurs while probing the file.
+     */
+    private static String getContentType(final Path file) throws IOException {
+        final String type = Files.probeContentType(file);
+        if (null == type) {
+            return "application/octet-stream";
+        } else if (type.startsWith("text/") || type.endsWith("javascript")
+                || type.endsWith("json") || type.endsWith("xml")) {
+            return type + "; charset=utf-8";
+        }
+        return type;
+    }
+}
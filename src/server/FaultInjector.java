@@ -0,0 +1,468 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.server.Request;
+
+/**
+ * class FaultInjector
+ * 
+ * Applies a FaultPolicy to a request before handing it to its route. No thread is held while a
+ * request is delayed or throttled: delayed requests are suspended and dispatched again by a
+ * TimerWheel, and throttled bodies are read or sent a slice at a time, with the wait between
+ * slices also left to the TimerWheel.
+ * 
+ * @author wqian94
+ */
+final class FaultInjector {
+    private static final String FAILURE_ATTRIBUTE = FaultInjector.class.getName() + ".failure";
+    private static final long PACE_MILLIS = 20; // Target interval between throttled slices.
+    
+    private FaultInjector() {
+        // Not instantiable.
+    }
+    
+    /**
+     * Handles a request to a route that has a fault policy. On the first dispatch of the request,
+     * decides whether it fails and suspends it for the latency, if any; once dispatched again, it
+     * either fails or is handed to the route, with its body throttled or dropped as configured.
+     * 
+     * @param policy
+     *            the policy for the route.
+     * @param timer
+     *            the timer wheel to schedule delays on.
+     * @param route
+     *            the route to handle the request.
+     * @param request
+     *            the request to handle.
+     * @param response
+     *            the response to write to.
+     * @throws IOException
+     *             if an error occurs while reading the request or writing the response.
+     * @throws ServletException
+     *             if the route cannot handle the request.
+     */
+    static void handle(final FaultPolicy policy, final TimerWheel timer, final Route route,
+            final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException, ServletException {
+        Object failure = request.getAttribute(FAILURE_ATTRIBUTE);
+        if (null == failure) { // The first dispatch of this request.
+            failure = policy.sampleFailure();
+            request.setAttribute(FAILURE_ATTRIBUTE, failure);
+            
+            final long latency = policy.sampleLatencyMillis();
+            if (latency > 0) {
+                final AsyncContext async = request.startAsync();
+                async.setTimeout(0); // Bounded by the latency instead.
+                timer.schedule(async::dispatch, latency);
+                return;
+            }
+        }
+        
+        if ((Boolean) failure) {
+            response.setContentType("text/plain; charset=utf-8");
+            response.setStatus(policy.getFailureStatus());
+            response.getWriter().write("Injected failure.");
+            return;
+        }
+        
+        final long bytesPerSecond = policy.getBytesPerSecond();
+        final HttpServletRequest faultyRequest =
+                bytesPerSecond > 0 || policy.getDropAfterBytes() >= 0
+                        ? new FaultyRequest(request, policy, timer) : request;
+        if (0 == bytesPerSecond) {
+            route.handle(faultyRequest, response);
+            return;
+        }
+        
+        final ThrottledResponse throttled = new ThrottledResponse(response);
+        route.handle(faultyRequest, throttled);
+        throttled.finish(request, timer, bytesPerSecond);
+    }
+    
+    /**
+     * class FaultyRequest
+     * 
+     * A request whose body is throttled or dropped by a fault policy.
+     * 
+     * @author wqian94
+     */
+    private static final class FaultyRequest extends HttpServletRequestWrapper {
+        private final FaultPolicy policy; // The policy to apply to the body.
+        private final TimerWheel timer; // The timer wheel to schedule throttled reads on.
+        private FaultyInputStream in; // The body of the request, once requested.
+        
+        /**
+         * Creates a new FaultyRequest.
+         * 
+         * @param request
+         *            the request to wrap.
+         * @param policy
+         *            the policy to apply to the body.
+         * @param timer
+         *            the timer wheel to schedule throttled reads on.
+         */
+        private FaultyRequest(final HttpServletRequest request, final FaultPolicy policy,
+                final TimerWheel timer) {
+            super(request);
+            this.policy = policy;
+            this.timer = timer;
+            this.in = null;
+        }
+        
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (null == in) {
+                in = new FaultyInputStream((HttpServletRequest) getRequest(),
+                        super.getInputStream(), policy, timer);
+            }
+            return in;
+        }
+    }
+    
+    /**
+     * class FaultyInputStream
+     * 
+     * The body of a request, read no faster than the policy's bandwidth allows, and dropped
+     * after the policy's number of bytes. When read asynchronously, a read that would exceed the
+     * bandwidth reports that the stream is not ready, and the reader is called back once the
+     * bandwidth allows it to continue, as though the bytes had only just arrived.
+     * 
+     * @author wqian94
+     */
+    private static final class FaultyInputStream extends ServletInputStream {
+        private final HttpServletRequest request; // The request that the body belongs to.
+        private final ServletInputStream in; // The actual body of the request.
+        private final TimerWheel timer; // The timer wheel to schedule throttled reads on.
+        private final long bytesPerSecond; // The bandwidth to read at, or 0 for unlimited.
+        private final long burstBytes; // Bytes that may be read at once, ahead of the bandwidth.
+        private final long dropAfterBytes; // Bytes to read before dropping, or -1 to never drop.
+        private final AtomicBoolean allDataRead; // Whether the reader was told of the end.
+        
+        private ReadListener listener; // The asynchronous reader, or null if reading blocks.
+        private long startNanos; // System.nanoTime() of the first read, or 0 if none yet.
+        private long bytes; // Number of bytes read so far.
+        
+        /**
+         * Creates a new FaultyInputStream.
+         * 
+         * @param request
+         *            the request that the body belongs to.
+         * @param in
+         *            the actual body of the request.
+         * @param policy
+         *            the policy to apply to the body.
+         * @param timer
+         *            the timer wheel to schedule throttled reads on.
+         */
+        private FaultyInputStream(final HttpServletRequest request, final ServletInputStream in,
+                final FaultPolicy policy, final TimerWheel timer) {
+            this.request = request;
+            this.in = in;
+            this.timer = timer;
+            this.bytesPerSecond = policy.getBytesPerSecond();
+            this.burstBytes = Math.max(1, bytesPerSecond * PACE_MILLIS / 1000);
+            this.dropAfterBytes = policy.getDropAfterBytes();
+            this.allDataRead = new AtomicBoolean(false);
+            this.listener = null;
+            this.startNanos = 0;
+            this.bytes = 0;
+        }
+        
+        /**
+         * Returns the number of bytes that the bandwidth allows to be read now.
+         * 
+         * @return A long, the number of bytes, or Long.MAX_VALUE if unthrottled.
+         */
+        private long allowance() {
+            if (0 == bytesPerSecond) {
+                return Long.MAX_VALUE;
+            }
+            if (0 == startNanos) {
+                startNanos = System.nanoTime();
+            }
+            final double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return (long) (seconds * bytesPerSecond) + burstBytes - bytes;
+        }
+        
+        /**
+         * Returns how long to wait until the bandwidth allows another read.
+         * 
+         * @return A long, the wait in milliseconds, at least 1.
+         */
+        private long waitMillis() {
+            return Math.max(1, (1 - allowance()) * 1000 / bytesPerSecond);
+        }
+        
+        @Override
+        public boolean isReady() {
+            if (allowance() <= 0 && null != listener) {
+                final AsyncContext async = request.getAsyncContext();
+                timer.schedule(() -> async.start(this::resume), waitMillis());
+                return false;
+            }
+            return in.isReady();
+        }
+        
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+        
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            this.listener = readListener;
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    listener.onDataAvailable();
+                }
+                
+                @Override
+                public void onAllDataRead() throws IOException {
+                    onEnd();
+                }
+                
+                @Override
+                public void onError(final Throwable exp) {
+                    listener.onError(exp);
+                }
+            });
+        }
+        
+        /**
+         * Calls the reader back once the bandwidth allows it to continue.
+         */
+        private void resume() {
+            try {
+                listener.onDataAvailable();
+                if (in.isFinished()) {
+                    onEnd();
+                }
+            } catch (Exception exp) {
+                listener.onError(exp);
+            }
+        }
+        
+        /**
+         * Tells the reader that the whole body has been read, exactly once, whether Jetty or a
+         * resumed read notices the end first.
+         * 
+         * @throws IOException
+         *             if the reader fails to handle the end of the body.
+         */
+        private void onEnd() throws IOException {
+            if (allDataRead.compareAndSet(false, true)) {
+                listener.onAllDataRead();
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            final int read = read(one, 0, 1);
+            return read < 0 ? read : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            if (dropAfterBytes >= 0 && bytes >= dropAfterBytes) {
+                drop();
+            }
+            
+            long allowed = allowance();
+            while (allowed <= 0) { // Only when reading blocks; async readers check isReady.
+                try {
+                    TimeUnit.MILLISECONDS.sleep(waitMillis());
+                } catch (InterruptedException exp) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while throttled.", exp);
+                }
+                allowed = allowance();
+            }
+            if (dropAfterBytes >= 0) {
+                allowed = Math.min(allowed, dropAfterBytes - bytes);
+            }
+            
+            final int read = in.read(b, off, (int) Math.min(len, allowed));
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+        
+        /**
+         * Drops the connection of the request, as though the link failed.
+         * 
+         * @throws IOException
+         *             always, to stop the reader.
+         */
+        private void drop() throws IOException {
+            final IOException exp =
+                    new IOException("Connection dropped after " + bytes + " bytes by policy.");
+            Log.log(Log.INFO, "Dropping %s after %d bytes, per fault policy.",
+                    request.getRequestURI(), bytes);
+            final Request baseRequest = Request.getBaseRequest(request);
+            if (null != baseRequest) {
+                baseRequest.getHttpChannel().abort(exp);
+            }
+            throw exp;
+        }
+    }
+    
+    /**
+     * class ThrottledResponse
+     * 
+     * A response whose body is held back while the route writes it, and then sent a slice at a
+     * time at the policy's bandwidth. If the route responds asynchronously instead, the body is
+     * passed straight through.
+     * 
+     * @author wqian94
+     */
+    private static final class ThrottledResponse extends HttpServletResponseWrapper {
+        private final ByteArrayOutputStream body; // The body written so far.
+        private final ServletOutputStream out; // Writes to the body, or straight through.
+        private PrintWriter writer; // Writes characters to the body, once requested.
+        private volatile boolean passThrough; // Whether writes go straight to the response.
+        
+        /**
+         * Creates a new ThrottledResponse.
+         * 
+         * @param response
+         *            the response to wrap.
+         */
+        private ThrottledResponse(final HttpServletResponse response) {
+            super(response);
+            this.body = new ByteArrayOutputStream();
+            this.writer = null;
+            this.passThrough = false;
+            this.out = new ServletOutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    if (passThrough) {
+                        response.getOutputStream().write(b);
+                    } else {
+                        body.write(b);
+                    }
+                }
+                
+                @Override
+                public void write(final byte[] b, final int off, final int len)
+                        throws IOException {
+                    if (passThrough) {
+                        response.getOutputStream().write(b, off, len);
+                    } else {
+                        body.write(b, off, len);
+                    }
+                }
+                
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+                
+                @Override
+                public void setWriteListener(final WriteListener listener) {
+                    // Never blocks, so never needs to notify.
+                }
+            };
+        }
+        
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+        
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (null == writer) {
+                final String charset = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(out,
+                        null == charset ? "ISO-8859-1" : charset));
+            }
+            return writer;
+        }
+        
+        @Override
+        public void flushBuffer() {
+            // Held back until the route finishes.
+        }
+        
+        /**
+         * Sends the body once the route has finished writing it.
+         * 
+         * @param request
+         *            the request being responded to.
+         * @param timer
+         *            the timer wheel to schedule the slices on.
+         * @param bytesPerSecond
+         *            the bandwidth to send at.
+         * @throws IOException
+         *             if the body cannot be passed through.
+         */
+        private void finish(final HttpServletRequest request, final TimerWheel timer,
+                final long bytesPerSecond) throws IOException {
+            if (null != writer) {
+                writer.flush();
+            }
+            
+            final byte[] content = body.toByteArray();
+            if (request.isAsyncStarted()) { // The route will finish the response later.
+                passThrough = true;
+                getResponse().getOutputStream().write(content);
+                return;
+            }
+            if (0 == content.length) {
+                return;
+            }
+            
+            final int slice = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(1, bytesPerSecond * PACE_MILLIS / 1000));
+            final long intervalMillis = Math.max(1, slice * 1000L / bytesPerSecond);
+            final AsyncContext async = request.startAsync();
+            async.setTimeout(0); // Bounded by the bandwidth instead.
+            new Runnable() {
+                private int offset = 0; // Number of bytes of the body sent so far.
+                
+                @Override
+                public void run() {
+                    try {
+                        final int length = Math.min(slice, content.length - offset);
+                        final ServletOutputStream stream = getResponse().getOutputStream();
+                        stream.write(content, offset, length);
+                        stream.flush();
+                        offset += length;
+                    } catch (IOException exp) {
+                        Log.log(Log.ERROR, "Throttled response failed after %d bytes: %s",
+                                offset, exp);
+                        offset = content.length;
+                    }
+                    
+                    if (offset < content.length) {
+                        timer.schedule(() -> async.start(this), intervalMillis);
+                    } else {
+                        async.complete();
+                    }
+                }
+            }.run();
+        }
+    }
+}
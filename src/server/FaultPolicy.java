@@ -0,0 +1,323 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * class FaultPolicy
+ * 
+ * An immutable description of the faults to inject into the requests to a route of an AuoServer,
+ * to simulate a slow or unreliable link: added latency, fixed or drawn from a distribution,
+ * limited bandwidth, connections dropped partway through an upload, and server errors. Policies
+ * are set per route with AuoServer.setFaultPolicy, and can be changed while the server is running.
+ * 
+ * @author wqian94
+ */
+public final class FaultPolicy {
+    public static final FaultPolicy NONE = builder().build(); // Injects no faults.
+    
+    /**
+     * enum Latency
+     * 
+     * The distribution that the latency of each request is drawn from.
+     */
+    private enum Latency {
+        FIXED, UNIFORM, EXPONENTIAL
+    }
+    
+    private final Latency latency; // The distribution of the added latency.
+    private final long minLatencyMillis; // The least latency added, in milliseconds.
+    private final long latencyMillis; // The most (uniform) or mean (exponential) latency added.
+    private final long bytesPerSecond; // The bandwidth of request and response bodies, or 0.
+    private final long dropAfterBytes; // Bytes of a request body to read before dropping, or -1.
+    private final int failureStatus; // The status to fail requests with.
+    private final double failureProbability; // The fraction of requests to fail.
+    
+    /**
+     * Creates a new FaultPolicy from a Builder.
+     * 
+     * @param builder
+     *            the Builder holding the policy.
+     */
+    private FaultPolicy(final Builder builder) {
+        this.latency = builder.latency;
+        this.minLatencyMillis = builder.minLatencyMillis;
+        this.latencyMillis = builder.latencyMillis;
+        this.bytesPerSecond = builder.bytesPerSecond;
+        this.dropAfterBytes = builder.dropAfterBytes;
+        this.failureStatus = builder.failureStatus;
+        this.failureProbability = builder.failureProbability;
+    }
+    
+    /**
+     * Creates a Builder for a policy, which injects no faults until configured.
+     * 
+     * @return A Builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Draws the latency to add to a request.
+     * 
+     * @return A long, the latency in milliseconds.
+     */
+    long sampleLatencyMillis() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (latency) {
+            case UNIFORM:
+                return minLatencyMillis + (long) (random.nextDouble()
+                        * (latencyMillis - minLatencyMillis + 1));
+            case EXPONENTIAL:
+                return minLatencyMillis + Math.round(-Math.log(1.0 - random.nextDouble())
+                        * (latencyMillis - minLatencyMillis));
+            default:
+                return latencyMillis;
+        }
+    }
+    
+    /**
+     * Decides whether to fail a request.
+     * 
+     * @return A boolean, whether to respond to the request with the failure status.
+     */
+    boolean sampleFailure() {
+        return failureProbability > 0
+                && ThreadLocalRandom.current().nextDouble() < failureProbability;
+    }
+    
+    /**
+     * Returns whether this policy adds latency to requests.
+     * 
+     * @return A boolean, whether any latency is added.
+     */
+    public boolean hasLatency() {
+        return latencyMillis > 0;
+    }
+    
+    /**
+     * Returns the bandwidth that request and response bodies are limited to.
+     * 
+     * @return A long, the bandwidth in bytes per second, or 0 if unlimited.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+    
+    /**
+     * Returns the number of bytes of a request body that are read before the connection is
+     * dropped.
+     * 
+     * @return A long, the number of bytes, or -1 if connections are not dropped.
+     */
+    public long getDropAfterBytes() {
+        return dropAfterBytes;
+    }
+    
+    /**
+     * Returns the status that failed requests are responded to with.
+     * 
+     * @return An int, the HTTP status code.
+     */
+    public int getFailureStatus() {
+        return failureStatus;
+    }
+    
+    /**
+     * Returns the fraction of requests that are failed.
+     * 
+     * @return A double, the probability between 0 and 1 that a request is failed.
+     */
+    public double getFailureProbability() {
+        return failureProbability;
+    }
+    
+    /**
+     * Returns whether this policy injects any faults at all.
+     * 
+     * @return A boolean, false if requests are handled as though no policy were set.
+     */
+    public boolean isActive() {
+        return hasLatency() || bytesPerSecond > 0 || dropAfterBytes >= 0
+                || failureProbability > 0;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("FaultPolicy[");
+        switch (latency) {
+            case UNIFORM:
+                builder.append("latency=").append(minLatencyMillis).append('-')
+                        .append(latencyMillis).append("ms ");
+                break;
+            case EXPONENTIAL:
+                builder.append("latency=").append(minLatencyMillis).append("ms+exp(mean ")
+                        .append(latencyMillis).append("ms) ");
+                break;
+            default:
+                builder.append("latency=").append(latencyMillis).append("ms ");
+        }
+        builder.append("bandwidth=")
+                .append(0 == bytesPerSecond ? "unlimited" : bytesPerSecond + "B/s");
+        if (dropAfterBytes >= 0) {
+            builder.append(" dropAfter=").append(dropAfterBytes).append('B');
+        }
+        if (failureProbability > 0) {
+            builder.append(" fail=").append(failureStatus).append('@').append(failureProbability);
+        }
+        return builder.append(']').toString();
+    }
+    
+    /**
+     * class Builder
+     * 
+     * Configures a FaultPolicy. Each option is off until set.
+     * 
+     * @author wqian94
+     */
+    public static final class Builder {
+        private Latency latency; // The distribution of the added latency.
+        private long minLatencyMillis; // The least latency added, in milliseconds.
+        private long latencyMillis; // The most (uniform) or mean (exponential) latency added.
+        private long bytesPerSecond; // The bandwidth of request and response bodies, or 0.
+        private long dropAfterBytes; // Bytes of a request body to read before dropping, or -1.
+        private int failureStatus; // The status to fail requests with.
+        private double failureProbability; // The fraction of requests to fail.
+        
+        /**
+         * Creates a new Builder.
+         */
+        private Builder() {
+            this.latency = Latency.FIXED;
+            this.minLatencyMillis = 0;
+            this.latencyMillis = 0;
+            this.bytesPerSecond = 0;
+            this.dropAfterBytes = -1;
+            this.failureStatus = 503;
+            this.failureProbability = 0;
+        }
+        
+        /**
+         * Delays each request by a fixed latency before it is handled.
+         * 
+         * @param millis
+         *            the latency, in milliseconds.
+         * @return This Builder.
+         */
+        public Builder latency(final long millis) {
+            return setLatency(Latency.FIXED, millis, millis);
+        }
+        
+        /**
+         * Delays each request by a latency drawn uniformly from a range.
+         * 
+         * @param minMillis
+         *            the least latency, in milliseconds.
+         * @param maxMillis
+         *            the most latency, in milliseconds.
+         * @return This Builder.
+         */
+        public Builder uniformLatency(final long minMillis, final long maxMillis) {
+            return setLatency(Latency.UNIFORM, minMillis, maxMillis);
+        }
+        
+        /**
+         * Delays each request by a minimum latency plus an exponentially distributed extra
+         * latency, which gives the long tail that real networks have.
+         * 
+         * @param minMillis
+         *            the least latency, in milliseconds.
+         * @param meanMillis
+         *            the mean latency, in milliseconds, at least minMillis.
+         * @return This Builder.
+         */
+        public Builder exponentialLatency(final long minMillis, final long meanMillis) {
+            return setLatency(Latency.EXPONENTIAL, minMillis, meanMillis);
+        }
+        
+        /**
+         * Sets the latency and checks its bounds.
+         * 
+         * @param distribution
+         *            the distribution of the latency.
+         * @param minMillis
+         *            the least latency, in milliseconds.
+         * @param millis
+         *            the most or mean latency, in milliseconds.
+         * @return This Builder.
+         */
+        private Builder setLatency(final Latency distribution, final long minMillis,
+                final long millis) {
+            if (minMillis < 0 || millis < minMillis) {
+                throw new IllegalArgumentException(
+                        "Invalid latency: " + minMillis + "ms, " + millis + "ms");
+            }
+            this.latency = distribution;
+            this.minLatencyMillis = minMillis;
+            this.latencyMillis = millis;
+            return this;
+        }
+        
+        /**
+         * Limits the rate at which request bodies are read and response bodies are sent.
+         * 
+         * @param bytesPerSecond
+         *            the bandwidth, in bytes per second, or 0 for unlimited.
+         * @return This Builder.
+         */
+        public Builder bandwidth(final long bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException(
+                        "Bandwidth must be non-negative: " + bytesPerSecond);
+            }
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+        
+        /**
+         * Drops the connection once a number of bytes of the request body have been read, as
+         * though the link failed partway through an upload. Requests with shorter bodies are
+         * unaffected.
+         * 
+         * @param bytes
+         *            the number of bytes to read before dropping, or -1 to never drop.
+         * @return This Builder.
+         */
+        public Builder dropAfter(final long bytes) {
+            if (bytes < -1) {
+                throw new IllegalArgumentException("Invalid byte count: " + bytes);
+            }
+            this.dropAfterBytes = bytes;
+            return this;
+        }
+        
+        /**
+         * Responds to a fraction of requests with a server error instead of handling them. Failed
+         * requests are still delayed by the latency.
+         * 
+         * @param status
+         *            the 5xx status to respond with.
+         * @param probability
+         *            the probability between 0 and 1 that a request fails.
+         * @return This Builder.
+         */
+        public Builder fail(final int status, final double probability) {
+            if (status < 500 || status > 599 || !(probability >= 0 && probability <= 1)) {
+                throw new IllegalArgumentException(
+                        "Invalid failure: " + status + " with probability " + probability);
+            }
+            this.failureStatus = status;
+            this.failureProbability = probability;
+            return this;
+        }
+        
+        /**
+         * Creates the policy.
+         * 
+         * @return A FaultPolicy.
+         */
+        public FaultPolicy build() {
+            return new FaultPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+/**
+ * class FileWatcher
+ * 
+ * Watches a directory on a background daemon thread, and notifies a listener whenever an entry in
+ * the directory is created, modified, or deleted. This lets caches learn of changes as they happen
+ * instead of checking the filesystem on every request.
+ * 
+ * @author wqian94
+ */
+final class FileWatcher implements Closeable {
+    private final WatchService service; // The service that receives events from the filesystem.
+    private final Path directory; // The directory being watched.
+    private final Consumer<Path> listener; // Receives the name of each changed entry.
+    private final Thread thread; // The thread that dispatches events to the listener.
+    
+    /**
+     * Starts watching a directory.
+     * 
+     * @param directory
+     *            the directory to watch.
+     * @param listener
+     *            the listener to notify with the path of each changed entry, resolved against the
+     *            directory. Receives null if events were lost, in which case any entry may have
+     *            changed. Invoked on the watcher thread.
+     * @return A FileWatcher, which must be closed to stop watching.
+     * @throws IOException
+     *             if the directory cannot be watched.
+     */
+    static FileWatcher watch(final Path directory, final Consumer<Path> listener)
+            throws IOException {
+        final WatchService service = FileSystems.getDefault().newWatchService();
+        try {
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException exp) {
+            service.close();
+            throw exp;
+        }
+        return new FileWatcher(service, directory, listener);
+    }
+    
+    /**
+     * Creates a new FileWatcher and starts its thread.
+     * 
+     * @param service
+     *            the service that the directory has been registered with.
+     * @param directory
+     *            the directory being watched.
+     * @param listener
+     *            the listener to notify of changed entries.
+     */
+    private FileWatcher(final WatchService service, final Path directory,
+            final Consumer<Path> listener) {
+        this.service = service;
+        this.directory = directory;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "FileWatcher-" + directory.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * Dispatches events to the listener until the watcher is closed.
+     */
+    private void run() {
+        try {
+            while (true) {
+                final WatchKey key = service.take();
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                            listener.accept(null);
+                        } else {
+                            listener.accept(directory.resolve((Path) event.context()));
+                        }
+                    } catch (RuntimeException exp) {
+                        Log.log(Log.ERROR, "File watcher listener for %s failed: %s", directory,
+                                exp);
+                    }
+                }
+                
+                // The directory itself is gone if the key cannot be reset, so stop watching.
+                if (!key.reset()) {
+                    Log.log(Log.ERROR, "Stopped watching %s, which is no longer accessible.",
+                            directory);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exp) {
+            // Closed, so exit quietly.
+        }
+    }
+    
+    /**
+     * Stops watching the directory.
+     * 
+     * @throws IOException
+     *             if an error occurs while closing the underlying WatchService.
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+        thread.interrupt();
+    }
+}
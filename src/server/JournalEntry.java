@@ -0,0 +1,118 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class JournalEntry
+ * 
+ * An immutable save request read back from a SaveJournal: its timing, request line, headers, and
+ * body.
+ * 
+ * @author wqian94
+ */
+public final class JournalEntry {
+    private final long receivedMillis; // System.currentTimeMillis() when the request arrived.
+    private final long offsetNanos; // Arrival time, relative to when the journal was opened.
+    private final long durationNanos; // Time taken to receive the body, in nanoseconds.
+    private final String method; // The HTTP method of the request.
+    private final String uri; // The request URI, including any query string.
+    private final List<Map.Entry<String, String>> headers; // The request headers, in order.
+    private final ByteBuffer body; // The request body, as a read-only view of the journal.
+    
+    /**
+     * Creates a new JournalEntry.
+     * 
+     * @param receivedMillis
+     *            the time when the request arrived, in milliseconds since the epoch.
+     * @param offsetNanos
+     *            the time when the request arrived, in nanoseconds since the journal was opened.
+     * @param durationNanos
+     *            the time taken to receive the body, in nanoseconds.
+     * @param method
+     *            the HTTP method of the request.
+     * @param uri
+     *            the request URI, including any query string.
+     * @param headers
+     *            the request headers, in the order received. Must be unmodifiable.
+     * @param body
+     *            the request body. Must be read-only.
+     */
+    JournalEntry(final long receivedMillis, final long offsetNanos, final long durationNanos,
+            final String method, final String uri, final List<Map.Entry<String, String>> headers,
+            final ByteBuffer body) {
+        this.receivedMillis = receivedMillis;
+        this.offsetNanos = offsetNanos;
+        this.durationNanos = durationNanos;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body;
+    }
+    
+    /**
+     * Returns the time when the request arrived.
+     * 
+     * @return A long, the arrival time in milliseconds since the epoch.
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+    
+    /**
+     * Returns the time when the request arrived, relative to the other requests in the same
+     * journal session. Used to replay requests with their original spacing.
+     * 
+     * @return A long, the arrival time in nanoseconds since the journal was opened.
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+    
+    /**
+     * Returns the time taken to receive the body of the request.
+     * 
+     * @return A long, the time from arrival to the end of the body, in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+    
+    /**
+     * Returns the HTTP method of the request.
+     * 
+     * @return A String, e.g. "POST".
+     */
+    public String getMethod() {
+        return method;
+    }
+    
+    /**
+     * Returns the URI of the request.
+     * 
+     * @return A String, the request URI, including any query string.
+     */
+    public String getUri() {
+        return uri;
+    }
+    
+    /**
+     * Returns the headers of the request.
+     * 
+     * @return An unmodifiable List<Map.Entry<String, String>> of header names and values, in the
+     *         order received. Repeated headers appear once per value.
+     */
+    public List<Map.Entry<String, String>> getHeaders() {
+        return headers;
+    }
+    
+    /**
+     * Returns the body of the request, which the caller is free to consume.
+     * 
+     * @return A read-only ByteBuffer, positioned at the start of the body.
+     */
+    public ByteBuffer getBody() {
+        return body.duplicate();
+    }
+}
@@ -0,0 +1,165 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * class LatencyHistogram
+ * 
+ * A lock-free histogram of latencies, cheap enough to record into on every request. Latencies are
+ * counted in microseconds, in log-linear buckets: every power of two is split into eight equal
+ * buckets, so each bucket is at most 12.5% wider than its lower bound, and the exact values below
+ * 16 microseconds have a bucket each. Each bucket is a LongAdder, which stripes its count across
+ * cells under contention, so concurrent recorders rarely touch the same cache line.
+ * 
+ * @author wqian94
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3; // Each power of two is split into 2^3 buckets.
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Buckets per power of two.
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS; // Values below this are exact.
+    private static final int LINEAR_BITS = 4; // Number of bits in LINEAR_LIMIT - 1.
+    private static final int BUCKETS = LINEAR_LIMIT + (64 - LINEAR_BITS) * SUB_BUCKETS;
+    
+    private final LongAdder[] buckets; // Count of latencies in each bucket.
+    private final LongAdder count; // Total number of latencies recorded.
+    private final LongAdder sumMicros; // Sum of all latencies recorded, in microseconds.
+    private final LongAccumulator maxMicros; // The largest latency recorded, in microseconds.
+    
+    /**
+     * Creates a new, empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.count = new LongAdder();
+        this.sumMicros = new LongAdder();
+        this.maxMicros = new LongAccumulator(Math::max, 0);
+    }
+    
+    /**
+     * Returns the bucket that a latency falls into.
+     * 
+     * @param micros
+     *            the latency, in microseconds. Must be non-negative.
+     * @return An int, the index of the bucket.
+     */
+    private static int bucketOf(final long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + mantissa;
+    }
+    
+    /**
+     * Returns the largest latency that falls into a bucket.
+     * 
+     * @param bucket
+     *            the index of the bucket.
+     * @return A long, the inclusive upper bound of the bucket, in microseconds.
+     */
+    private static long upperBoundOf(final int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        final long mantissa = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (mantissa + 1) * width - 1;
+    }
+    
+    /**
+     * Records a latency. Is thread-safe and lock-free.
+     * 
+     * @param nanos
+     *            the latency, in nanoseconds. Negative latencies are recorded as 0.
+     */
+    public void record(final long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets[bucketOf(micros)].increment();
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+    
+    /**
+     * Returns the number of latencies recorded.
+     * 
+     * @return A long, the count of latencies.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+    
+    /**
+     * Returns the mean of the latencies recorded.
+     * 
+     * @return A double, the mean latency in milliseconds, or 0 if none were recorded.
+     */
+    public double getMeanMillis() {
+        final long n = count.sum();
+        return 0 == n ? 0 : sumMicros.sum() / 1000.0 / n;
+    }
+    
+    /**
+     * Returns the largest latency recorded.
+     * 
+     * @return A double, the maximum latency in milliseconds, or 0 if none were recorded.
+     */
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+    
+    /**
+     * Estimates a percentile of the latencies recorded. The estimate is the upper bound of the
+     * bucket holding the percentile, so it overstates the true value by at most 12.5%, and never
+     * exceeds the maximum. While latencies are being recorded concurrently, the estimate reflects
+     * some but not necessarily all of them.
+     * 
+     * @param percentile
+     *            the percentile to estimate, from 0 to 100.
+     * @return A double, the estimated latency in milliseconds, or 0 if none were recorded.
+     */
+    public double getPercentileMillis(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100: " + percentile);
+        }
+        
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (0 == total) {
+            return 0;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+    
+    /**
+     * Clears all recorded latencies. Latencies recorded concurrently may or may not be kept.
+     */
+    public void reset() {
+        for (final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sumMicros.reset();
+        maxMicros.reset();
+    }
+}
@@ -1,17 +1,44 @@
 package server;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.function.Supplier;
 
 public enum Log {
-	INFO("[INFO] "), ERROR("[ERROR] ");
+	TRACE("[TRACE] "), DEBUG("[DEBUG] "), INFO("[INFO] "), WARN("[WARN] "), ERROR("[ERROR] ");
 	
 	private final static PrintStream logStream = new PrintStream(System.err);
-	private final static DateTimeFormatter logDateFormatter =
-			DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss.SSS:");  // Used for logs.
+	private final static long FLUSH_TIMEOUT_MILLIS = 5000;  // Longest to wait for a flush.
+	private final static ThreadLocal<Formatter> formatters =
+			ThreadLocal.withInitial(() -> new Formatter(new StringBuilder()));  // Per caller.
+	private final static ThreadLocal<String[]> contexts =
+			ThreadLocal.withInitial(() -> new String[2]);  // Test name and driver id per thread.
+	
+	private static volatile LogSink sink = new TextLogSink(logStream);  // Receives the entries.
+	private static volatile LogRing ring;  // The asynchronous backend, or null if synchronous.
+	private static boolean shutdownHooked;  // Whether the async backend is flushed on exit.
 	
 	private final String tag;  // The tag printed along with the log entry.
+	private volatile boolean enabled;  // Whether entries on this channel are written.
+	
+	static {
+		// The threshold can be chosen at launch, e.g. -Dauo.log.level=DEBUG.
+		final String level = System.getProperty("auo.log.level");
+		Log threshold = INFO;
+		if (null != level) {
+			try {
+				threshold = valueOf(level.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException exp) {
+				logStream.println("Unknown log level " + level + ", so logging at INFO.");
+			}
+		}
+		setThreshold(threshold);
+	}
 	
 	/**
 	 * Makes a log entry using the given timestamp and message.
@@ -22,10 +49,10 @@ public enum Log {
 	 */
 	public static void log(final LocalDateTime timestamp, final String message,
 			final Object... arguments) {
-		final Object[] newArguments = new Object[arguments.length + 1];
-		newArguments[0] = getLogTimestamp(timestamp);
-		System.arraycopy(arguments, 0, newArguments, 1, arguments.length);
-		logStream.printf("%s" + message + "%n", newArguments);
+		if (INFO.enabled) {  // Untagged entries are filtered as INFO.
+			write(timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), null,
+					message, arguments);
+		}
 	}
 	
 	/**
@@ -36,7 +63,57 @@ public enum Log {
 	 * @param arguments the arguments to pass into the formatted string.
 	 */
 	public static void log(final Log channel, final String message, final Object... arguments) {
-		log(LocalDateTime.now(), channel.tag + message, arguments);
+		if (channel.enabled) {
+			write(System.currentTimeMillis(), channel, message, arguments);
+		}
+	}
+	
+	/**
+	 * Makes a log entry using the current time as the timestamp, with a message that is only
+	 * computed if the channel is enabled. Use this for entries that are expensive to build or that
+	 * are usually disabled, such as tracing, so that a disabled entry costs no formatting and no
+	 * boxing of arguments.
+	 * 
+	 * @param channel the log channel (enum value of Log) to use.
+	 * @param message supplies the message to deliver, which is not treated as a format string.
+	 */
+	public static void log(final Log channel, final Supplier<String> message) {
+		if (channel.enabled) {
+			write(System.currentTimeMillis(), channel, message.get(), null);
+		}
+	}
+	
+	/**
+	 * Enables the channels at or above a threshold, and disables those below it. Entries logged
+	 * without a channel are filtered as INFO. By default, the threshold is INFO, unless the
+	 * auo.log.level system property names another channel.
+	 * 
+	 * @param threshold the least severe channel to enable.
+	 */
+	public static void setThreshold(final Log threshold) {
+		for (final Log channel : values()) {
+			channel.enabled = channel.compareTo(threshold) >= 0;
+		}
+	}
+	
+	/**
+	 * Enables or disables this channel alone, e.g. to trace without also debugging. Entries on a
+	 * disabled channel are discarded before they are formatted.
+	 * 
+	 * @param enabled whether entries on this channel are written.
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Returns whether entries on this channel are written, for guarding work that is only needed
+	 * to log.
+	 * 
+	 * @return A boolean, whether this channel is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
 	}
 	
 	/**
@@ -47,17 +124,199 @@ public enum Log {
 	 * @param arguments the arguments to pass into the formatted string.
 	 */
 	public static void log(final String message, final Object... arguments) {
-		log(LocalDateTime.now(), message, arguments);
+		if (INFO.enabled) {
+			write(System.currentTimeMillis(), null, message, arguments);
+		}
+	}
+	
+	/**
+	 * Switches logging to asynchronous mode: log calls only publish their entries to a ring
+	 * buffer, and a background thread formats and writes them in batches. Arguments are formatted
+	 * on that thread, so they must not be modified after the call. When the buffer is full,
+	 * callers wait up to maxWaitMillis and then drop their entry; the number dropped is logged.
+	 * Pending entries are flushed when the JVM exits.
+	 * 
+	 * @param capacity the number of entries that can be waiting, e.g. 8192.
+	 * @param maxWaitMillis how long to wait for space before dropping; 0 drops immediately.
+	 */
+	public static synchronized void startAsync(final int capacity, final long maxWaitMillis) {
+		final LogRing newRing = new LogRing(capacity, maxWaitMillis);
+		stopAsync();
+		ring = newRing;
+		if (!shutdownHooked) {
+			Runtime.getRuntime().addShutdownHook(new Thread(Log::stopAsync, "AuO-log-flush"));
+			shutdownHooked = true;
+		}
+	}
+	
+	/**
+	 * Switches logging back to synchronous mode, once the pending entries have been written.
+	 */
+	public static synchronized void stopAsync() {
+		final LogRing current = ring;
+		if (null != current) {
+			ring = null;
+			current.close(FLUSH_TIMEOUT_MILLIS);
+		}
+	}
+	
+	/**
+	 * Waits until every entry logged so far has been written, in asynchronous mode, and flushes
+	 * the sink.
+	 */
+	public static void flush() {
+		final LogRing current = ring;
+		if (null != current) {
+			current.flush(FLUSH_TIMEOUT_MILLIS);
+		}
+		flushSink();
+	}
+	
+	/**
+	 * Replaces the sink that log entries are written to, e.g. with a MappedLogSink for logs that
+	 * will be searched by tools. The previous sink is flushed, but not closed. By default, entries
+	 * are written as text to System.err.
+	 * 
+	 * @param newSink the sink to write entries to.
+	 * @return A LogSink, the previous sink.
+	 */
+	public static LogSink setSink(final LogSink newSink) {
+		if (null == newSink) {
+			throw new IllegalArgumentException("Log sink must not be null.");
+		}
+		flush();
+		final LogSink previous = sink;
+		sink = newSink;
+		try {
+			previous.flush();
+		} catch (IOException exp) {
+			logStream.println("Unable to flush log sink: " + exp);
+		}
+		return previous;
+	}
+	
+	/**
+	 * Returns the sink that log entries are written to.
+	 * 
+	 * @return A LogSink, the current sink.
+	 */
+	public static LogSink getSink() {
+		return sink;
+	}
+	
+	/**
+	 * Records the name of the test running on the current thread, which is attached to the
+	 * thread's log entries until it is replaced.
+	 * 
+	 * @param test the name of the test, or null if none is running.
+	 */
+	public static void setTestName(final String test) {
+		contexts.get()[0] = test;
+	}
+	
+	/**
+	 * Records the id of the WebDriver in use on the current thread, which is attached to the
+	 * thread's log entries until it is replaced.
+	 * 
+	 * @param driver the id of the driver, or null if none is in use.
+	 */
+	public static void setDriverId(final String driver) {
+		contexts.get()[1] = driver;
+	}
+	
+	/**
+	 * Makes a log entry, either directly or through the asynchronous backend.
+	 * 
+	 * @param millis the time of the entry, in milliseconds since the epoch.
+	 * @param channel the log channel to use, or null for none.
+	 * @param message the formatted string of the message to deliver.
+	 * @param arguments the arguments to pass into the formatted string, or null if the message is
+	 *            not a format string.
+	 */
+	private static void write(final long millis, final Log channel, final String message,
+			final Object[] arguments) {
+		final String[] context = contexts.get();
+		final String thread = Thread.currentThread().getName();
+		final LogRing current = ring;
+		if (null != current) {
+			current.publish(millis, channel, thread, context[0], context[1], message, arguments);
+			return;
+		}
+		
+		final Formatter formatter = formatters.get();
+		emit(millis, channel, thread, context[0], context[1],
+				format(formatter, message, arguments));
+		flushSink();
+	}
+	
+	/**
+	 * Formats a message with a reusable Formatter, replacing its previous output.
+	 * 
+	 * @param formatter the Formatter, which must write to a StringBuilder.
+	 * @param message the formatted string of the message.
+	 * @param arguments the arguments to pass into the formatted string, or null if the message is
+	 *            not a format string.
+	 * @return A CharSequence, the output of the formatter, which is reused by the next call, or
+	 *         the message itself if it is not a format string.
+	 */
+	static CharSequence format(final Formatter formatter, final String message,
+			final Object[] arguments) {
+		if (null == arguments) {
+			return message;
+		}
+		final StringBuilder output = (StringBuilder) formatter.out();
+		output.setLength(0);
+		formatter.format(message, arguments);
+		return output;
+	}
+	
+	/**
+	 * Writes a formatted entry to the current sink. A failing sink is reported on System.err.
+	 * 
+	 * @param millis the time of the entry, in milliseconds since the epoch.
+	 * @param channel the log channel of the entry, or null for none.
+	 * @param thread the name of the thread that made the entry.
+	 * @param test the name of the test running on that thread, or null.
+	 * @param driver the id of the driver in use on that thread, or null.
+	 * @param message the formatted message.
+	 */
+	static void emit(final long millis, final Log channel, final String thread,
+			final String test, final String driver, final CharSequence message) {
+		try {
+			sink.write(millis, channel, thread, test, driver, message);
+		} catch (IOException exp) {
+			logStream.println("Unable to write log entry: " + exp);
+		}
+	}
+	
+	/**
+	 * Flushes the current sink. A failing sink is reported on System.err.
+	 */
+	static void flushSink() {
+		try {
+			sink.flush();
+		} catch (IOException exp) {
+			logStream.println("Unable to flush log sink: " + exp);
+		}
+	}
+	
+	/**
+	 * Converts a time in milliseconds since the epoch to the local time zone.
+	 * 
+	 * @param millis the time, as from System.currentTimeMillis().
+	 * @return A LocalDateTime, the same time in the local time zone.
+	 */
+	static LocalDateTime toLocalDateTime(final long millis) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
 	}
 	
 	/**
-	 * Returns a timestamp used for logging purposes, based on the provided time.
+	 * Returns the tag printed along with entries on this channel.
 	 * 
-	 * @param timestamp the Instant to convert.
-	 * @return A String, the timestamp formatted using the static logDateFormat.
+	 * @return A String, the tag.
 	 */
-	private static String getLogTimestamp(final LocalDateTime timestamp) {
-		return logDateFormatter.format(timestamp);
+	String getTag() {
+		return tag;
 	}
 	
 	private Log(final String tag) {
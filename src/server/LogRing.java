@@ -0,0 +1,245 @@
+package server;
+
+import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * class LogRing
+ * 
+ * The asynchronous backend of Log. Callers claim a slot in a preallocated ring buffer with a
+ * single atomic increment, fill it in, and return; a single consumer thread formats the entries
+ * and writes them to the log's sink, flushing it once per batch instead of once per entry. When
+ * the ring is full, callers wait a bounded time for the consumer to catch up, and then drop their
+ * entry, which is counted and reported in the log.
+ * 
+ * @author wqian94
+ */
+final class LogRing {
+    private static final int BATCH_SIZE = 256; // The most entries written per flush.
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50); // Full ring.
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Empty ring.
+    
+    private final Slot[] slots; // The ring of entries, a power of two in length.
+    private final int mask; // Masks a sequence number into a slot index.
+    private final long maxWaitNanos; // How long callers wait for space before dropping.
+    private final AtomicLong claimed; // The sequence number of the next slot to claim.
+    private final LongAdder dropped; // Entries dropped since the last report.
+    private final Thread consumer; // Formats and writes the entries.
+    
+    private volatile long consumed; // Every entry before this sequence number has been written.
+    private volatile boolean idle; // Whether the consumer is waiting for entries.
+    private volatile boolean closed; // Whether the consumer should stop once the ring drains.
+    
+    /**
+     * A slot in the ring, holding one entry until the consumer writes it.
+     */
+    private static final class Slot {
+        private volatile long sequence = -1; // The sequence number of the entry, once published.
+        private long millis; // The time of the entry, in milliseconds since the epoch.
+        private Log channel; // The channel of the entry, or null if none.
+        private String thread; // The name of the thread that made the entry.
+        private String test; // The name of the test running on that thread, or null.
+        private String driver; // The id of the driver in use on that thread, or null.
+        private String message; // The format string of the entry, or its literal message.
+        private Object[] arguments; // The arguments of the format string, or null if literal.
+    }
+    
+    /**
+     * Creates a new LogRing and starts its consumer.
+     * 
+     * @param capacity
+     *            the number of entries that can be waiting, rounded up to a power of two.
+     * @param maxWaitMillis
+     *            how long a caller waits for space in a full ring before dropping its entry, in
+     *            milliseconds; 0 drops immediately.
+     */
+    LogRing(final int capacity, final long maxWaitMillis) {
+        if (capacity < 1 || capacity > 1 << 30 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid log ring: " + capacity + " entries, " + maxWaitMillis + "ms");
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Slot[Math.max(1, size)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = slots.length - 1;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.claimed = new AtomicLong(0);
+        this.dropped = new LongAdder();
+        this.consumed = 0;
+        this.idle = false;
+        this.closed = false;
+        this.consumer = new Thread(this::run, "AuO-log");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+    
+    /**
+     * Publishes an entry for the consumer to write. The arguments are formatted later, on the
+     * consumer's thread, so they must not be modified afterwards.
+     * 
+     * @param millis
+     *            the time of the entry, in milliseconds since the epoch.
+     * @param channel
+     *            the channel of the entry, or null if none.
+     * @param thread
+     *            the name of the thread that made the entry.
+     * @param test
+     *            the name of the test running on that thread, or null.
+     * @param driver
+     *            the id of the driver in use on that thread, or null.
+     * @param message
+     *            the format string of the entry.
+     * @param arguments
+     *            the arguments of the format string, or null if the message is not a format
+     *            string.
+     * @return A boolean, whether the entry was published rather than dropped.
+     */
+    boolean publish(final long millis, final Log channel, final String thread, final String test,
+            final String driver, final String message, final Object[] arguments) {
+        long deadline = 0;
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed < slots.length) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+                continue;
+            }
+            
+            // The ring is full, so wait for the consumer, within bounds.
+            final long now = System.nanoTime();
+            if (0 == deadline) {
+                deadline = now + maxWaitNanos;
+            }
+            if (closed || now - deadline >= 0) {
+                dropped.increment();
+                return false;
+            }
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+        
+        final Slot slot = slots[(int) sequence & mask];
+        slot.millis = millis;
+        slot.channel = channel;
+        slot.thread = thread;
+        slot.test = test;
+        slot.driver = driver;
+        slot.message = message;
+        slot.arguments = arguments;
+        slot.sequence = sequence; // Publishes the entry to the consumer.
+        if (idle) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+    
+    /**
+     * Waits until every entry published so far has been written.
+     * 
+     * @param timeoutMillis
+     *            the longest to wait, in milliseconds.
+     * @return A boolean, whether every entry was written in time.
+     */
+    boolean flush(final long timeoutMillis) {
+        final long target = claimed.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (consumed < target && consumer.isAlive()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+        return consumed >= target;
+    }
+    
+    /**
+     * Stops the consumer once it has written every entry published so far. Entries published
+     * afterwards are dropped.
+     * 
+     * @param timeoutMillis
+     *            the longest to wait for the consumer, in milliseconds.
+     */
+    void close(final long timeoutMillis) {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(timeoutMillis);
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Formats and writes entries in batches until closed.
+     */
+    private void run() {
+        final Formatter formatter = new Formatter(new StringBuilder());
+        long next = 0;
+        while (true) {
+            int count = 0;
+            Slot slot = slots[(int) next & mask];
+            while (count < BATCH_SIZE && next == slot.sequence) {
+                write(formatter, slot);
+                slot.thread = null;
+                slot.test = null;
+                slot.driver = null;
+                slot.message = null;
+                slot.arguments = null;
+                next++;
+                count++;
+                slot = slots[(int) next & mask];
+            }
+            
+            final long drops = dropped.sumThenReset();
+            if (drops > 0) {
+                Log.emit(System.currentTimeMillis(), Log.ERROR, consumer.getName(), null, null,
+                        Log.format(formatter, "Dropped %d log entries because the log buffer "
+                                + "was full.", new Object[] { drops }));
+            }
+            if (count > 0 || drops > 0) {
+                Log.flushSink();
+            }
+            if (count > 0) {
+                consumed = next;
+                continue;
+            }
+            
+            // Nothing is ready; stop if closed and nothing is still being published.
+            if (closed && next == claimed.get()) {
+                return;
+            }
+            idle = true;
+            if (next != slot.sequence) {
+                LockSupport.parkNanos(this, closed ? BACKOFF_NANOS : IDLE_NANOS);
+            }
+            idle = false;
+        }
+    }
+    
+    /**
+     * Formats an entry and writes it to the log's sink. An entry whose format string does not
+     * match its arguments is written unformatted, rather than stopping the consumer.
+     * 
+     * @param formatter
+     *            the Formatter to format the message with.
+     * @param slot
+     *            the slot holding the entry.
+     */
+    private static void write(final Formatter formatter, final Slot slot) {
+        CharSequence message;
+        try {
+            message = Log.format(formatter, slot.message, slot.arguments);
+        } catch (RuntimeException exp) {
+            message = slot.message + " (" + exp + ")";
+        }
+        Log.emit(slot.millis, slot.channel, slot.thread, slot.test, slot.driver, message);
+    }
+}
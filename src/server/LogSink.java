@@ -0,0 +1,46 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * interface LogSink
+ * 
+ * Receives the entries made through Log, already formatted, along with where they came from. Set
+ * with Log.setSink. Entries may be buffered until the next flush, which Log calls after each entry
+ * when logging synchronously, and after each batch when logging asynchronously. Implementations
+ * must be thread-safe, and must not keep the message after write returns, since its buffer is
+ * reused.
+ * 
+ * @author wqian94
+ */
+public interface LogSink extends Closeable {
+    /**
+     * Writes an entry.
+     * 
+     * @param millis
+     *            the time of the entry, in milliseconds since the epoch.
+     * @param channel
+     *            the channel of the entry, or null if it was logged without one.
+     * @param thread
+     *            the name of the thread that made the entry.
+     * @param test
+     *            the name of the test that was running on that thread, or null if none.
+     * @param driver
+     *            the id of the WebDriver in use on that thread, or null if none.
+     * @param message
+     *            the formatted message of the entry.
+     * @throws IOException
+     *             if the entry cannot be written.
+     */
+    void write(long millis, Log channel, String thread, String test, String driver,
+            CharSequence message) throws IOException;
+    
+    /**
+     * Writes out any buffered entries.
+     * 
+     * @throws IOException
+     *             if the entries cannot be written.
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,308 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * class MappedLogSink
+ * 
+ * Writes log entries as JSON lines to a rolling series of memory-mapped files, for logs that are
+ * searched and aggregated by tools rather than read. Each line is an object with the fields time,
+ * channel, thread, test, driver, and message. Entries are encoded into a reused buffer and copied
+ * straight into the mapping, so writing one allocates nothing beyond its timestamp, which is
+ * itself formatted at most once per millisecond.
+ * 
+ * Files are named auo-log-NNNNN.jsonl, numbered from one past the highest already in the
+ * directory. Each is mapped at a fixed size, and truncated to the bytes actually used when the
+ * next is started or the sink is closed, so until then the current file ends in zero bytes. Only
+ * the most recent files are kept.
+ * 
+ * @author wqian94
+ */
+public final class MappedLogSink implements LogSink {
+    public static final long DEFAULT_FILE_BYTES = 16L << 20; // 16 MiB per file.
+    public static final int DEFAULT_MAX_FILES = 8; // Files kept before the oldest is deleted.
+    
+    private static final String FILE_FORMAT = "auo-log-%05d.jsonl"; // Names of the log files.
+    private static final Pattern FILE_PATTERN = Pattern.compile("auo-log-(\\d+)\\.jsonl");
+    private static final byte[] HEX =
+            "0123456789abcdef".getBytes(StandardCharsets.US_ASCII); // Digits for escapes.
+    
+    private final File directory; // The directory holding the log files.
+    private final long fileBytes; // The size each file is mapped at.
+    private final int maxFiles; // The number of files to keep.
+    private final TimestampCache timestamps; // Formats the timestamps of the entries.
+    
+    private byte[] record; // The entry being encoded.
+    private int length; // The number of bytes of the entry encoded so far.
+    private int fileNumber; // The number of the current file.
+    private FileChannel channel; // The current file, or null if none is open.
+    private MappedByteBuffer mapping; // The mapping of the current file, or null.
+    private boolean closed; // Whether the sink has been closed.
+    
+    /**
+     * Creates a new MappedLogSink.
+     * 
+     * @param directory
+     *            the directory to write the log files to.
+     * @param fileBytes
+     *            the size of each file.
+     * @param maxFiles
+     *            the number of files to keep.
+     * @param firstFileNumber
+     *            the number of the first file to write.
+     */
+    private MappedLogSink(final File directory, final long fileBytes, final int maxFiles,
+            final int firstFileNumber) {
+        this.directory = directory;
+        this.fileBytes = fileBytes;
+        this.maxFiles = maxFiles;
+        this.timestamps =
+                new TimestampCache(DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS"));
+        this.record = new byte[1024];
+        this.length = 0;
+        this.fileNumber = firstFileNumber;
+        this.channel = null;
+        this.mapping = null;
+        this.closed = false;
+    }
+    
+    /**
+     * Opens a sink writing DEFAULT_MAX_FILES files of DEFAULT_FILE_BYTES each to a directory.
+     * 
+     * @param directory
+     *            the directory to write the log files to, which is created if needed.
+     * @return A MappedLogSink.
+     * @throws IOException
+     *             if the directory cannot be created.
+     */
+    public static MappedLogSink open(final File directory) throws IOException {
+        return open(directory, DEFAULT_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+    
+    /**
+     * Opens a sink writing to a directory. Files left in the directory by earlier sinks are kept,
+     * and count towards the number of files to keep.
+     * 
+     * @param directory
+     *            the directory to write the log files to, which is created if needed.
+     * @param fileBytes
+     *            the size of each file. Entries larger than this get a file of their own.
+     * @param maxFiles
+     *            the number of files to keep.
+     * @return A MappedLogSink.
+     * @throws IOException
+     *             if the directory cannot be created.
+     */
+    public static MappedLogSink open(final File directory, final long fileBytes,
+            final int maxFiles) throws IOException {
+        if (fileBytes < 1 || fileBytes > Integer.MAX_VALUE || maxFiles < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid log files: " + maxFiles + " of " + fileBytes + " bytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create log directory " + directory);
+        }
+        
+        int last = 0;
+        final String[] names = directory.list();
+        for (final String name : null == names ? new String[0] : names) {
+            final Matcher matcher = FILE_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                last = Math.max(last, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return new MappedLogSink(directory, fileBytes, maxFiles, last + 1);
+    }
+    
+    @Override
+    public synchronized void write(final long millis, final Log channel, final String thread,
+            final String test, final String driver, final CharSequence message)
+            throws IOException {
+        if (closed) {
+            return;
+        }
+        
+        length = 0;
+        putAscii("{\"time\":\"");
+        putAscii(timestamps.format(millis));
+        putAscii("\",\"channel\":");
+        putString(null == channel ? null : channel.name());
+        putAscii(",\"thread\":");
+        putString(thread);
+        putAscii(",\"test\":");
+        putString(test);
+        putAscii(",\"driver\":");
+        putString(driver);
+        putAscii(",\"message\":");
+        putString(message);
+        putAscii("}\n");
+        
+        if (null == mapping || mapping.remaining() < length) {
+            roll(length);
+        }
+        mapping.put(record, 0, length);
+    }
+    
+    /**
+     * Does nothing, since each entry is in the file's mapping, and so visible to other processes,
+     * as soon as it is written.
+     */
+    @Override
+    public void flush() {
+        // Nothing is buffered.
+    }
+    
+    /**
+     * Finishes the current file, if any, maps a new one with room for at least the given number
+     * of bytes, and deletes the files beyond the number to keep.
+     * 
+     * @param needed
+     *            the number of bytes that the new file must hold.
+     * @throws IOException
+     *             if an error occurs while finishing or creating a file.
+     */
+    private void roll(final int needed) throws IOException {
+        if (null != mapping) {
+            finishFile();
+            fileNumber++;
+        }
+        
+        channel = FileChannel.open(getFile(fileNumber).toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapping = channel.map(MapMode.READ_WRITE, 0, Math.max(fileBytes, needed));
+        for (int old = fileNumber - maxFiles; old > 0 && getFile(old).delete(); old--) {
+            // Keep going, in case a sink with more files to keep left older ones behind.
+        }
+    }
+    
+    /**
+     * Truncates the current file to the bytes actually used, and closes it.
+     * 
+     * @throws IOException
+     *             if an error occurs while truncating the file.
+     */
+    private void finishFile() throws IOException {
+        try {
+            channel.truncate(mapping.position());
+        } finally {
+            channel.close();
+            channel = null;
+            mapping = null;
+        }
+    }
+    
+    /**
+     * Returns a log file in the directory.
+     * 
+     * @param number
+     *            the number of the file.
+     * @return A File, the log file.
+     */
+    private File getFile(final int number) {
+        return new File(directory, String.format(FILE_FORMAT, number));
+    }
+    
+    /**
+     * Closes the sink, truncating the current file to the bytes actually used. Entries written
+     * afterwards are discarded.
+     * 
+     * @throws IOException
+     *             if an error occurs while finishing the current file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (null != mapping) {
+            finishFile();
+        }
+    }
+    
+    /**
+     * Makes room in the record for more bytes.
+     * 
+     * @param bytes
+     *            the number of bytes to make room for.
+     */
+    private void reserve(final int bytes) {
+        if (length + bytes > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + bytes));
+        }
+    }
+    
+    /**
+     * Appends characters that are known to need no escaping and to be ASCII.
+     * 
+     * @param text
+     *            the characters to append.
+     */
+    private void putAscii(final String text) {
+        reserve(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            record[length++] = (byte) text.charAt(i);
+        }
+    }
+    
+    /**
+     * Appends a JSON string, escaped and encoded as UTF-8, or null.
+     * 
+     * @param text
+     *            the string to append, or null.
+     */
+    private void putString(final CharSequence text) {
+        if (null == text) {
+            putAscii("null");
+            return;
+        }
+        
+        reserve(text.length() * 3 + 2); // Enough unless escapes are needed.
+        record[length++] = '"';
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if ('"' == c || '\\' == c) {
+                reserve(2 + (text.length() - i) * 3);
+                record[length++] = '\\';
+                record[length++] = (byte) c;
+            } else if (c < 0x20) {
+                reserve(6 + (text.length() - i) * 3);
+                record[length++] = '\\';
+                record[length++] = 'u';
+                record[length++] = '0';
+                record[length++] = '0';
+                record[length++] = HEX[c >> 4];
+                record[length++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                record[length++] = (byte) c;
+            } else if (c < 0x800) {
+                record[length++] = (byte) (0xC0 | c >> 6);
+                record[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int code = Character.toCodePoint(c, text.charAt(++i));
+                record[length++] = (byte) (0xF0 | code >> 18);
+                record[length++] = (byte) (0x80 | code >> 12 & 0x3F);
+                record[length++] = (byte) (0x80 | code >> 6 & 0x3F);
+                record[length++] = (byte) (0x80 | code & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                record[length++] = '?'; // An unpaired surrogate has no encoding.
+            } else {
+                record[length++] = (byte) (0xE0 | c >> 12);
+                record[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                record[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        record[length++] = '"';
+    }
+}
@@ -0,0 +1,33 @@
+package server;
+
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * interface Route
+ * 
+ * Handles the requests to a single URL of an AuoServer. Routes are registered through
+ * AuoServer.addRoute, and can be written as lambda functions.
+ * 
+ * @author wqian94
+ */
+@FunctionalInterface
+public interface Route {
+    /**
+     * Handles a request to the URL of this route. The request is marked as handled once this
+     * returns, so the route only needs to write its response.
+     * 
+     * @param request
+     *            the request to handle.
+     * @param response
+     *            the response to write to.
+     * @throws IOException
+     *             if an error occurs while reading the request or writing the response.
+     * @throws ServletException
+     *             if the request cannot be handled.
+     */
+    void handle(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException;
+}
@@ -0,0 +1,256 @@
+package server;
+
+/**
+ * class Router
+ * 
+ * Maps request targets to routes in constant time. Targets are matched in their normalized form,
+ * without leading slashes and with runs of slashes collapsed, but are never copied to normalize
+ * them: the hash and the comparison both walk the raw target directly, so a lookup allocates
+ * nothing. Each route is either case-sensitive or case-insensitive, and a case-sensitive route
+ * takes precedence over a case-insensitive one for the same URL.
+ * 
+ * Lookups are lock-free. Registering or removing a route rebuilds the table and publishes it
+ * atomically, since that happens rarely.
+ * 
+ * @author wqian94
+ */
+final class Router {
+    /**
+     * class Slot
+     * 
+     * An immutable entry in the route table.
+     */
+    private static final class Slot {
+        private final String url; // The normalized URL of the route.
+        private final boolean caseSensitive; // Whether the URL must match case-sensitively.
+        private final Route route; // The route to dispatch to.
+        private final int hash; // The case-folded hash of the URL.
+        
+        /**
+         * Creates a new Slot.
+         * 
+         * @param url
+         *            the normalized URL of the route.
+         * @param caseSensitive
+         *            whether the URL must match case-sensitively.
+         * @param route
+         *            the route to dispatch to.
+         */
+        private Slot(final String url, final boolean caseSensitive, final Route route) {
+            this.url = url;
+            this.caseSensitive = caseSensitive;
+            this.route = route;
+            this.hash = hash(url);
+        }
+    }
+    
+    private volatile Slot[] table; // Open-addressed table, with a power-of-two length.
+    private int size; // Number of routes in the table. Guarded by this.
+    
+    /**
+     * Creates a new, empty Router.
+     */
+    Router() {
+        this.table = new Slot[8];
+        this.size = 0;
+    }
+    
+    /**
+     * Normalizes a request target by removing leading slashes and collapsing runs of slashes into
+     * a single slash. Returns the target itself if it is already normalized.
+     * 
+     * @param target
+     *            the request target to normalize.
+     * @return A String, the normalized target.
+     */
+    static String normalize(final String target) {
+        final int start = skipSlashes(target);
+        final int length = target.length();
+        
+        // Look for a run of slashes, in which case the target needs to be copied.
+        int run = target.indexOf("//", start);
+        if (-1 == run) {
+            return 0 == start ? target : target.substring(start);
+        }
+        
+        final StringBuilder normalized = new StringBuilder(length - start);
+        normalized.append(target, start, run + 1);
+        for (int i = run + 1; i < length; i++) {
+            final char c = target.charAt(i);
+            if ('/' != c || '/' != target.charAt(i - 1)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+    
+    /**
+     * Returns the index of the first character of a target that is not a slash.
+     * 
+     * @param target
+     *            the request target.
+     * @return An int, the index of the first non-slash character, or the length of the target.
+     */
+    private static int skipSlashes(final String target) {
+        int start = 0;
+        while (start < target.length() && '/' == target.charAt(start)) {
+            start++;
+        }
+        return start;
+    }
+    
+    /**
+     * Folds the case of a character, consistently with String.equalsIgnoreCase.
+     * 
+     * @param c
+     *            the character to fold.
+     * @return A char, the case-folded character.
+     */
+    private static char fold(final char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+    
+    /**
+     * Computes the case-folded hash of the normalized form of a target.
+     * 
+     * @param target
+     *            the request target, which need not be normalized.
+     * @return An int, the hash.
+     */
+    private static int hash(final String target) {
+        int hash = 0;
+        for (int i = skipSlashes(target); i < target.length(); i++) {
+            final char c = target.charAt(i);
+            if ('/' != c || '/' != target.charAt(i - 1)) {
+                hash = 31 * hash + fold(c);
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Determines whether the normalized form of a target is the URL of a slot.
+     * 
+     * @param slot
+     *            the slot to match against.
+     * @param target
+     *            the request target, which need not be normalized.
+     * @return A boolean, whether the target matches the slot's URL.
+     */
+    private static boolean matches(final Slot slot, final String target) {
+        final String url = slot.url;
+        int j = 0;
+        for (int i = skipSlashes(target); i < target.length(); i++) {
+            final char c = target.charAt(i);
+            if ('/' == c && '/' == target.charAt(i - 1)) {
+                continue; // Collapsed into the previous slash.
+            } else if (j == url.length()) {
+                return false;
+            }
+            
+            final char expected = url.charAt(j++);
+            if (c != expected && (slot.caseSensitive || fold(c) != fold(expected))) {
+                return false;
+            }
+        }
+        return j == url.length();
+    }
+    
+    /**
+     * Finds the route for a request target.
+     * 
+     * @param target
+     *            the request target, which need not be normalized.
+     * @return The Route registered for the target, or null if there is none.
+     */
+    Route lookup(final String target) {
+        final Slot[] table = this.table;
+        final int mask = table.length - 1;
+        final int hash = hash(target);
+        
+        Route insensitive = null;
+        for (int i = hash & mask; null != table[i]; i = (i + 1) & mask) {
+            final Slot slot = table[i];
+            if (hash == slot.hash && matches(slot, target)) {
+                if (slot.caseSensitive) {
+                    return slot.route;
+                }
+                insensitive = slot.route;
+            }
+        }
+        return insensitive;
+    }
+    
+    /**
+     * Registers a route, replacing any route already registered for the same URL with the same
+     * case sensitivity.
+     * 
+     * @param url
+     *            the URL of the route, which is normalized before registering.
+     * @param caseSensitive
+     *            whether the URL must match case-sensitively.
+     * @param route
+     *            the route to dispatch to.
+     */
+    synchronized void add(final String url, final boolean caseSensitive, final Route route) {
+        final Slot slot = new Slot(normalize(url), caseSensitive, route);
+        final Slot[] old = table;
+        final Slot[] copy = new Slot[4 * (size + 1) > old.length ? 2 * old.length : old.length];
+        
+        // Rehash every other route, then the new one.
+        size = 0;
+        for (final Slot existing : old) {
+            if (null != existing && (existing.caseSensitive != caseSensitive
+                    || !existing.url.equals(slot.url))) {
+                insert(copy, existing);
+            }
+        }
+        insert(copy, slot);
+        table = copy;
+    }
+    
+    /**
+     * Removes the route registered for a URL with the given case sensitivity.
+     * 
+     * @param url
+     *            the URL of the route, which is normalized before matching.
+     * @param caseSensitive
+     *            the case sensitivity that the route was registered with.
+     * @return A boolean, whether a route was removed.
+     */
+    synchronized boolean remove(final String url, final boolean caseSensitive) {
+        final String normalized = normalize(url);
+        final Slot[] old = table;
+        final Slot[] copy = new Slot[old.length];
+        
+        // Open addressing can't simply clear a slot, so rehash everything else instead.
+        final int oldSize = size;
+        size = 0;
+        for (final Slot existing : old) {
+            if (null != existing && (existing.caseSensitive != caseSensitive
+                    || !existing.url.equals(normalized))) {
+                insert(copy, existing);
+            }
+        }
+        table = copy;
+        return size != oldSize;
+    }
+    
+    /**
+     * Inserts a slot into a table by linear probing, counting it towards the size.
+     * 
+     * @param table
+     *            the table to insert into, which must have a free slot.
+     * @param slot
+     *            the slot to insert.
+     */
+    private void insert(final Slot[] table, final Slot slot) {
+        final int mask = table.length - 1;
+        int i = slot.hash & mask;
+        while (null != table[i]) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+        size++;
+    }
+}
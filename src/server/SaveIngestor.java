@@ -0,0 +1,349 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * class SaveIngestor
+ * 
+ * Consumes the body of a save request asynchronously, so that a slow or long upload does not hold
+ * a server thread while waiting for bytes to arrive. The body is read in fixed-size chunks only as
+ * fast as it arrives, and Jetty stops reading from the connection while a chunk is being
+ * processed, which pushes back on the client. The size and checksum of the body are computed as
+ * it streams in, as is an analysis of the recording, and the body can optionally be spooled to
+ * disk and appended to a SaveJournal. Nothing else is kept in memory.
+ * 
+ * @author wqian94
+ */
+final class SaveIngestor implements ReadListener {
+    static final int CHUNK_BYTES = 16 * 1024; // Size of the chunks that the body is read in.
+    
+    private final AsyncContext async; // The asynchronous context of the save request.
+    private final ServletInputStream in; // The body of the save request.
+    private final long limit; // The maximum number of bytes to accept.
+    private final Consumer<SaveRecord> onSaved; // Receives the record of a completed save.
+    private final String contentType; // The Content-Type of the request.
+    private final long receivedMillis; // System.currentTimeMillis() when the request arrived.
+    private final long startNanos; // System.nanoTime() when the request arrived.
+    private final File spoolFile; // The file to spool the body to, or null to not spool.
+    private final FileChannel spool; // Open channel to the spool file, or null to not spool.
+    private final SaveJournal journal; // The journal to append the save to, or null.
+    private final boolean keepSpool; // Whether the spool file outlives the journal append.
+    private final String method; // The HTTP method of the request, for the journal.
+    private final String uri; // The request URI and query string, for the journal.
+    private final List<Map.Entry<String, String>> headers; // The request headers, for the journal.
+    
+    private final byte[] chunk; // Buffer that each chunk of the body is read into.
+    private final CRC32 checksum; // Checksum of the body read so far.
+    private final WavAnalyzer analyzer; // Analyzes the recording in the body as it streams in.
+    private long bytes; // Number of bytes of the body read so far.
+    private boolean finished; // Whether a response has been sent.
+    
+    /**
+     * Starts consuming the body of a save request asynchronously. Requests that declare a body
+     * larger than the limit are rejected immediately, without reading the body.
+     * 
+     * @param request
+     *            the save request.
+     * @param response
+     *            the response to the save request.
+     * @param limit
+     *            the maximum number of bytes to accept in the body.
+     * @param spoolDirectory
+     *            the directory to spool the body to, or null to not spool.
+     * @param journal
+     *            the journal to append the save to, or null to not journal. If there is no spool
+     *            directory, the body is spooled temporarily alongside the journal.
+     * @param onSaved
+     *            the consumer to pass the record of the save to, once the whole body is read.
+     *            Invoked before the response is sent.
+     * @throws IOException
+     *             if an error occurs while setting up the spool file or reading the body.
+     */
+    static void ingest(final HttpServletRequest request, final HttpServletResponse response,
+            final long limit, final File spoolDirectory, final SaveJournal journal,
+            final Consumer<SaveRecord> onSaved) throws IOException {
+        if (request.getContentLengthLong() > limit) {
+            respond(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Save exceeds the limit of " + limit + " bytes.");
+            return;
+        }
+        
+        final File spoolFile;
+        if (null != spoolDirectory) {
+            spoolFile = File.createTempFile("auo-save-", ".bin", spoolDirectory);
+        } else if (null != journal) {
+            spoolFile = File.createTempFile("auo-save-", ".tmp", journal.getDirectory());
+        } else {
+            spoolFile = null;
+        }
+        
+        AsyncContext async = null;
+        SaveIngestor ingestor = null;
+        try {
+            final List<Map.Entry<String, String>> headers = new ArrayList<>();
+            for (final Enumeration<String> names = request.getHeaderNames(); names
+                    .hasMoreElements();) {
+                final String name = names.nextElement();
+                for (final Enumeration<String> values = request.getHeaders(name); values
+                        .hasMoreElements();) {
+                    headers.add(
+                            new AbstractMap.SimpleImmutableEntry<>(name, values.nextElement()));
+                }
+            }
+            final String query = request.getQueryString();
+            final String uri = request.getRequestURI() + (null == query ? "" : "?" + query);
+            
+            async = request.startAsync();
+            async.setTimeout(0); // Long uploads are bounded by the connection's idle timeout.
+            
+            final ServletInputStream in = request.getInputStream();
+            ingestor = new SaveIngestor(async, in, limit, request.getContentType(), spoolFile,
+                    null != spoolDirectory, journal, request.getMethod(), uri,
+                    Collections.unmodifiableList(headers), onSaved);
+            in.setReadListener(ingestor);
+        } catch (IOException | RuntimeException exp) {
+            Log.log(Log.ERROR, "Unable to start reading save: %s", exp);
+            abandon(async, ingestor, spoolFile);
+            throw exp;
+        }
+    }
+    
+    /**
+     * Cleans up a save that failed before its body could be read: discards the spool file, and
+     * if the request was already asynchronous, responds with an error and completes it.
+     * 
+     * @param async
+     *            the asynchronous context of the save request, or null if not yet started.
+     * @param ingestor
+     *            the SaveIngestor of the save, or null if not yet created.
+     * @param spoolFile
+     *            the file that the body was to be spooled to, or null if none.
+     */
+    private static void abandon(final AsyncContext async, final SaveIngestor ingestor,
+            final File spoolFile) {
+        try {
+            if (null != ingestor) {
+                ingestor.fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Unable to read save.");
+                return; // Closes and deletes the spool file as well.
+            }
+            if (null != spoolFile) {
+                spoolFile.delete();
+            }
+            if (null != async) {
+                try {
+                    respond((HttpServletResponse) async.getResponse(),
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unable to read save.");
+                } finally {
+                    async.complete();
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // The original failure is rethrown, which matters more.
+        }
+    }
+    
+    /**
+     * Creates a new SaveIngestor.
+     * 
+     * @param async
+     *            the asynchronous context of the save request.
+     * @param in
+     *            the body of the save request.
+     * @param limit
+     *            the maximum number of bytes to accept.
+     * @param contentType
+     *            the Content-Type of the request.
+     * @param spoolFile
+     *            the file to spool the body to, or null to not spool.
+     * @param keepSpool
+     *            whether to keep the spool file once the save is journaled.
+     * @param journal
+     *            the journal to append the save to, or null to not journal.
+     * @param method
+     *            the HTTP method of the request.
+     * @param uri
+     *            the request URI and query string.
+     * @param headers
+     *            the request headers, in the order received.
+     * @param onSaved
+     *            the consumer to pass the record of the save to.
+     * @throws IOException
+     *             if the spool file cannot be opened.
+     */
+    private SaveIngestor(final AsyncContext async, final ServletInputStream in, final long limit,
+            final String contentType, final File spoolFile, final boolean keepSpool,
+            final SaveJournal journal, final String method, final String uri,
+            final List<Map.Entry<String, String>> headers, final Consumer<SaveRecord> onSaved)
+            throws IOException {
+        this.async = async;
+        this.in = in;
+        this.limit = limit;
+        this.onSaved = onSaved;
+        this.contentType = contentType;
+        this.receivedMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.spoolFile = spoolFile;
+        this.spool = null == spoolFile ? null
+                : FileChannel.open(spoolFile.toPath(), StandardOpenOption.WRITE);
+        this.journal = journal;
+        this.keepSpool = keepSpool;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.chunk = new byte[CHUNK_BYTES];
+        this.checksum = new CRC32();
+        this.analyzer = new WavAnalyzer();
+        this.bytes = 0;
+        this.finished = false;
+    }
+    
+    /**
+     * Reads as much of the body as is available without blocking.
+     * 
+     * @throws IOException
+     *             if an error occurs while reading the body or writing to the spool file.
+     */
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (!finished && in.isReady()) {
+            final int read = in.read(chunk);
+            if (read < 0) {
+                return; // End of the body, which onAllDataRead handles.
+            }
+            
+            bytes += read;
+            if (bytes > limit) {
+                fail(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                        "Save exceeds the limit of " + limit + " bytes.");
+                return;
+            }
+            
+            checksum.update(chunk, 0, read);
+            analyzer.update(chunk, 0, read);
+            if (null != spool) {
+                final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                while (buffer.hasRemaining()) {
+                    spool.write(buffer);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Records the completed save and acknowledges it.
+     * 
+     * @throws IOException
+     *             if an error occurs while closing the spool file or writing the response.
+     */
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (finished) {
+            return;
+        }
+        
+        if (null != spool) {
+            spool.close();
+        }
+        final long durationNanos = System.nanoTime() - startNanos;
+        if (null != journal) {
+            try {
+                journal.append(receivedMillis, startNanos, durationNanos, method, uri, headers,
+                        spoolFile);
+            } catch (IOException exp) {
+                // A broken journal should not fail the test that is saving.
+                Log.log(Log.ERROR, "Unable to journal save: %s", exp);
+            } finally {
+                if (!keepSpool) {
+                    spoolFile.delete();
+                }
+            }
+        }
+        onSaved.accept(new SaveRecord(contentType, bytes, checksum.getValue(), analyzer.finish(),
+                keepSpool ? spoolFile : null, receivedMillis, durationNanos));
+        
+        finished = true;
+        respond((HttpServletResponse) async.getResponse(), HttpServletResponse.SC_OK,
+                AuoServer.SAVE_OK_RESPONSE);
+        async.complete();
+    }
+    
+    /**
+     * Abandons the save if reading the body fails, e.g. because the client disconnected.
+     * 
+     * @param exp
+     *            the reason that reading failed.
+     */
+    @Override
+    public void onError(final Throwable exp) {
+        Log.log(Log.ERROR, "Save failed after %d bytes: %s", bytes, exp);
+        try {
+            fail(HttpServletResponse.SC_BAD_REQUEST, "Save failed: " + exp.getMessage());
+        } catch (IOException ignored) {
+            // The client is most likely gone, so there is no one left to tell.
+        }
+    }
+    
+    /**
+     * Rejects the save, discarding the spool file.
+     * 
+     * @param status
+     *            the status code to respond with.
+     * @param message
+     *            the message to respond with.
+     * @throws IOException
+     *             if an error occurs while writing the response.
+     */
+    private void fail(final int status, final String message) throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        
+        if (null != spool) {
+            spool.close();
+            spoolFile.delete();
+        }
+        try {
+            respond((HttpServletResponse) async.getResponse(), status, message);
+        } finally {
+            async.complete();
+        }
+    }
+    
+    /**
+     * Writes a plain-text response.
+     * 
+     * @param response
+     *            the response to write to.
+     * @param status
+     *            the status code to respond with.
+     * @param message
+     *            the body of the response.
+     * @throws IOException
+     *             if an error occurs while writing the response.
+     */
+    private static void respond(final HttpServletResponse response, final int status,
+            final String message) throws IOException {
+        response.setContentType("text/plain; charset=utf-8");
+        response.setStatus(status);
+        response.getWriter().write(message);
+    }
+}
@@ -0,0 +1,393 @@
+package server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class SaveJournal
+ * 
+ * An append-only journal of save requests, for capturing the saves of a test run and replaying
+ * them later with SaveReplay. Records are appended to memory-mapped segment files, named
+ * journal-NNNNN.seg, and each record is located by a fixed-size entry in journal.idx. Segments are
+ * truncated to their used length when they fill up or the journal is closed.
+ * 
+ * Each segment record is laid out as follows, big-endian:
+ * 
+ * @formatter:off
+ *   int     MAGIC
+ *   long    arrival time, in milliseconds since the epoch
+ *   long    arrival time, in nanoseconds since the journal was first opened
+ *   long    time taken to receive the body, in nanoseconds
+ *   string  method
+ *   string  URI
+ *   int     number of headers, followed by a string name and a string value for each
+ *   long    length of the body, followed by the body
+ * @formatter:on
+ * 
+ * where each string is an int length followed by that many bytes of UTF-8. Each index entry is an
+ * int segment number, a long offset into the segment, a long record length, the long arrival
+ * offset in nanoseconds, and the long arrival time in milliseconds.
+ * 
+ * @author wqian94
+ */
+public final class SaveJournal implements Closeable {
+    static final int MAGIC = 0x41754F4A; // "AuOJ".
+    
+    private static final long SEGMENT_BYTES = 64L << 20; // Default size of each segment, 64 MiB.
+    private static final int INDEX_ENTRY_BYTES = 36; // Size of each entry in the index.
+    private static final String INDEX_FILE = "journal.idx";
+    
+    private final File directory; // The directory holding the journal's files.
+    private final FileChannel index; // The index, opened for appending.
+    private final long baseNanos; // System.nanoTime() corresponding to an arrival offset of 0.
+    private final ByteBuffer indexEntry; // Reused buffer for writing index entries.
+    
+    private int segmentNumber; // The number of the current segment.
+    private FileChannel segmentChannel; // The current segment, or null if none is open.
+    private MappedByteBuffer segment; // The mapping of the current segment, or null.
+    private boolean closed; // Whether the journal has been closed.
+    
+    /**
+     * Opens a journal in a directory, creating the directory and the journal if needed. Records
+     * are appended after any records already in the journal, in a new segment, and their arrival
+     * offsets continue on from the last existing record.
+     * 
+     * @param directory
+     *            the directory to hold the journal's files.
+     * @return A SaveJournal, which must be closed when done.
+     * @throws IOException
+     *             if the journal cannot be opened.
+     */
+    public static SaveJournal open(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        
+        final FileChannel index = FileChannel.open(new File(directory, INDEX_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Continue after the last existing record, in both segment numbering and time.
+            final long entries = index.size() / INDEX_ENTRY_BYTES;
+            int segmentNumber = 0;
+            long baseNanos = System.nanoTime();
+            if (entries > 0) {
+                final ByteBuffer last = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+                index.read(last, (entries - 1) * INDEX_ENTRY_BYTES);
+                last.flip();
+                segmentNumber = last.getInt(0) + 1;
+                final long elapsedMillis = System.currentTimeMillis() - last.getLong(28);
+                baseNanos -= last.getLong(20) + TimeUnit.MILLISECONDS.toNanos(elapsedMillis);
+            }
+            index.position(entries * INDEX_ENTRY_BYTES); // Drop any partially-written entry.
+            return new SaveJournal(directory, index, baseNanos, segmentNumber);
+        } catch (IOException exp) {
+            index.close();
+            throw exp;
+        }
+    }
+    
+    /**
+     * Creates a new SaveJournal.
+     * 
+     * @param directory
+     *            the directory holding the journal's files.
+     * @param index
+     *            the index, positioned for appending.
+     * @param baseNanos
+     *            the System.nanoTime() corresponding to an arrival offset of 0.
+     * @param segmentNumber
+     *            the number of the first segment to write.
+     */
+    private SaveJournal(final File directory, final FileChannel index, final long baseNanos,
+            final int segmentNumber) {
+        this.directory = directory;
+        this.index = index;
+        this.baseNanos = baseNanos;
+        this.indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        this.segmentNumber = segmentNumber;
+        this.segmentChannel = null;
+        this.segment = null;
+        this.closed = false;
+    }
+    
+    /**
+     * Returns the directory holding the journal's files.
+     * 
+     * @return A File, the journal directory.
+     */
+    File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Returns the file of a segment.
+     * 
+     * @param directory
+     *            the directory holding the journal's files.
+     * @param number
+     *            the number of the segment.
+     * @return A File, the segment file.
+     */
+    private static File getSegmentFile(final File directory, final int number) {
+        return new File(directory, String.format("journal-%05d.seg", number));
+    }
+    
+    /**
+     * Appends a save request to the journal. Is thread-safe.
+     * 
+     * @param receivedMillis
+     *            the time when the request arrived, in milliseconds since the epoch.
+     * @param receivedNanos
+     *            the System.nanoTime() when the request arrived.
+     * @param durationNanos
+     *            the time taken to receive the body, in nanoseconds.
+     * @param method
+     *            the HTTP method of the request.
+     * @param uri
+     *            the request URI, including any query string.
+     * @param headers
+     *            the request headers, in the order received.
+     * @param body
+     *            the file containing the body of the request.
+     * @throws IOException
+     *             if an error occurs while reading the body or writing the journal.
+     */
+    synchronized void append(final long receivedMillis, final long receivedNanos,
+            final long durationNanos, final String method, final String uri,
+            final List<Map.Entry<String, String>> headers, final File body) throws IOException {
+        if (closed) {
+            throw new IOException("Journal in " + directory + " is closed.");
+        }
+        
+        try (final FileChannel bodyChannel =
+                FileChannel.open(body.toPath(), StandardOpenOption.READ)) {
+            final long bodyLength = bodyChannel.size();
+            final ByteBuffer metadata =
+                    encodeMetadata(receivedMillis, receivedNanos - baseNanos, durationNanos,
+                            method, uri, headers);
+            final long length = metadata.remaining() + 8 + bodyLength;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Save of " + bodyLength + " bytes is too large to journal.");
+            }
+            
+            if (null == segment || segment.remaining() < length) {
+                roll(length);
+            }
+            final int offset = segment.position();
+            segment.put(metadata);
+            segment.putLong(bodyLength);
+            
+            // Copy the body straight from its file into the mapped segment.
+            final ByteBuffer target = segment.slice();
+            target.limit((int) bodyLength);
+            while (target.hasRemaining() && bodyChannel.read(target) >= 0) {
+                // Keep reading until the whole body is copied.
+            }
+            segment.position(offset + (int) length);
+            
+            indexEntry.clear();
+            indexEntry.putInt(segmentNumber).putLong(offset).putLong(length)
+                    .putLong(receivedNanos - baseNanos).putLong(receivedMillis).flip();
+            while (indexEntry.hasRemaining()) {
+                index.write(indexEntry);
+            }
+        }
+    }
+    
+    /**
+     * Encodes the fields of a record that precede the body. The parameters are as for append.
+     * 
+     * @return A ByteBuffer, flipped and ready to be read.
+     */
+    private static ByteBuffer encodeMetadata(final long receivedMillis, final long offsetNanos,
+            final long durationNanos, final String method, final String uri,
+            final List<Map.Entry<String, String>> headers) {
+        final List<byte[]> strings = new ArrayList<>(2 + 2 * headers.size());
+        strings.add(method.getBytes(StandardCharsets.UTF_8));
+        strings.add(uri.getBytes(StandardCharsets.UTF_8));
+        for (final Map.Entry<String, String> header : headers) {
+            strings.add(header.getKey().getBytes(StandardCharsets.UTF_8));
+            strings.add(header.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        
+        int length = 4 + 8 + 8 + 8 + 4;
+        for (final byte[] string : strings) {
+            length += 4 + string.length;
+        }
+        
+        final ByteBuffer metadata = ByteBuffer.allocate(length);
+        metadata.putInt(MAGIC).putLong(receivedMillis).putLong(offsetNanos).putLong(durationNanos);
+        for (int i = 0; i < strings.size(); i++) {
+            if (2 == i) {
+                metadata.putInt(headers.size());
+            }
+            metadata.putInt(strings.get(i).length).put(strings.get(i));
+        }
+        if (headers.isEmpty()) {
+            metadata.putInt(0);
+        }
+        metadata.flip();
+        return metadata;
+    }
+    
+    /**
+     * Finishes the current segment, if any, and maps a new one with room for at least the given
+     * number of bytes.
+     * 
+     * @param needed
+     *            the number of bytes that the new segment must hold.
+     * @throws IOException
+     *             if an error occurs while finishing or creating a segment.
+     */
+    private void roll(final long needed) throws IOException {
+        if (null != segment) {
+            finishSegment();
+            segmentNumber++;
+        }
+        
+        segmentChannel = FileChannel.open(getSegmentFile(directory, segmentNumber).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(MapMode.READ_WRITE, 0, Math.max(SEGMENT_BYTES, needed));
+    }
+    
+    /**
+     * Flushes the current segment and truncates it to the bytes actually used.
+     * 
+     * @throws IOException
+     *             if an error occurs while flushing or truncating the segment.
+     */
+    private void finishSegment() throws IOException {
+        segment.force();
+        segmentChannel.truncate(segment.position());
+        segmentChannel.close();
+        segment = null;
+        segmentChannel = null;
+    }
+    
+    /**
+     * Closes the journal, flushing all records to disk.
+     * 
+     * @throws IOException
+     *             if an error occurs while finishing the journal's files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        
+        try {
+            if (null != segment) {
+                finishSegment();
+            }
+            index.force(true);
+        } finally {
+            index.close();
+        }
+    }
+    
+    /**
+     * Reads every record in a journal, in the order they were appended. The bodies of the records
+     * are memory-mapped from the segment files rather than copied.
+     * 
+     * @param directory
+     *            the directory holding the journal's files.
+     * @return A List<JournalEntry> of the records in the journal.
+     * @throws IOException
+     *             if an error occurs while reading the journal, or the journal is corrupt.
+     */
+    public static List<JournalEntry> read(final File directory) throws IOException {
+        final List<JournalEntry> entries = new ArrayList<>();
+        final Map<Integer, ByteBuffer> segments = new HashMap<>();
+        try (final FileChannel index = FileChannel.open(new File(directory, INDEX_FILE).toPath(),
+                StandardOpenOption.READ)) {
+            final long indexLength = index.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+            final ByteBuffer indexBytes = index.map(MapMode.READ_ONLY, 0, indexLength);
+            while (indexBytes.hasRemaining()) {
+                final int segmentNumber = indexBytes.getInt();
+                final long offset = indexBytes.getLong();
+                final long length = indexBytes.getLong();
+                indexBytes.getLong(); // The arrival offset and time are also in the record.
+                indexBytes.getLong();
+                
+                ByteBuffer segment = segments.get(segmentNumber);
+                if (null == segment) {
+                    try (final FileChannel channel = FileChannel.open(
+                            getSegmentFile(directory, segmentNumber).toPath(),
+                            StandardOpenOption.READ)) {
+                        segment = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                    }
+                    segments.put(segmentNumber, segment);
+                }
+                
+                final ByteBuffer record = segment.duplicate();
+                record.position((int) offset).limit((int) (offset + length));
+                entries.add(decode(record.slice()));
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Decodes a single record.
+     * 
+     * @param record
+     *            the bytes of the record.
+     * @return A JournalEntry for the record.
+     * @throws IOException
+     *             if the record is corrupt.
+     */
+    private static JournalEntry decode(final ByteBuffer record) throws IOException {
+        if (MAGIC != record.getInt()) {
+            throw new IOException("Corrupt journal record.");
+        }
+        
+        final long receivedMillis = record.getLong();
+        final long offsetNanos = record.getLong();
+        final long durationNanos = record.getLong();
+        final String method = decodeString(record);
+        final String uri = decodeString(record);
+        
+        final int headerCount = record.getInt();
+        final List<Map.Entry<String, String>> headers = new ArrayList<>(headerCount);
+        for (int i = 0; i < headerCount; i++) {
+            final String name = decodeString(record);
+            headers.add(new AbstractMap.SimpleImmutableEntry<>(name, decodeString(record)));
+        }
+        
+        final long bodyLength = record.getLong();
+        if (bodyLength != record.remaining()) {
+            throw new IOException("Corrupt journal record body.");
+        }
+        return new JournalEntry(receivedMillis, offsetNanos, durationNanos, method, uri,
+                Collections.unmodifiableList(headers), record.slice().asReadOnlyBuffer());
+    }
+    
+    /**
+     * Decodes a length-prefixed UTF-8 string.
+     * 
+     * @param record
+     *            the buffer to decode from, positioned at the length.
+     * @return A String, the decoded string.
+     */
+    private static String decodeString(final ByteBuffer record) {
+        final byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+import java.io.File;
+
+/**
+ * class SaveRecord
+ * 
+ * An immutable summary of a save request that an AuoServer received in full.
+ * 
+ * @author wqian94
+ */
+public final class SaveRecord {
+    private final String contentType; // The Content-Type of the request, or null if unset.
+    private final long bytes; // The number of bytes in the request body.
+    private final long crc32; // The CRC-32 checksum of the request body.
+    private final AudioAnalysis analysis; // Analysis of the recording, or null if undecodable.
+    private final File spoolFile; // The file that the body was spooled to, or null if none.
+    private final long receivedMillis; // System.currentTimeMillis() when the request arrived.
+    private final long durationNanos; // Time taken to receive the body, in nanoseconds.
+    
+    /**
+     * Creates a new SaveRecord.
+     * 
+     * @param contentType
+     *            the Content-Type of the request, or null if unset.
+     * @param bytes
+     *            the number of bytes in the request body.
+     * @param crc32
+     *            the CRC-32 checksum of the request body.
+     * @param analysis
+     *            the analysis of the recording, or null if it could not be decoded.
+     * @param spoolFile
+     *            the file that the body was spooled to, or null if it was not spooled.
+     * @param receivedMillis
+     *            the time when the request arrived, in milliseconds since the epoch.
+     * @param durationNanos
+     *            the time taken to receive the body, in nanoseconds.
+     */
+    SaveRecord(final String contentType, final long bytes, final long crc32,
+            final AudioAnalysis analysis, final File spoolFile, final long receivedMillis,
+            final long durationNanos) {
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.crc32 = crc32;
+        this.analysis = analysis;
+        this.spoolFile = spoolFile;
+        this.receivedMillis = receivedMillis;
+        this.durationNanos = durationNanos;
+    }
+    
+    /**
+     * Returns the Content-Type of the save request.
+     * 
+     * @return A String, the Content-Type header value, or null if the request did not set one.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Returns the size of the saved recording.
+     * 
+     * @return A long, the number of bytes in the request body.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Returns the checksum of the saved recording.
+     * 
+     * @return A long, the CRC-32 checksum of the request body.
+     */
+    public long getCrc32() {
+        return crc32;
+    }
+    
+    /**
+     * Returns the analysis of the saved recording, which was computed as the recording streamed
+     * in. Only WAV recordings can be analyzed.
+     * 
+     * @return An AudioAnalysis, or null if the recording is not in a format that can be decoded.
+     */
+    public AudioAnalysis getAnalysis() {
+        return analysis;
+    }
+    
+    /**
+     * Returns the file that the saved recording was spooled to, which is left in place for the
+     * caller to inspect or delete.
+     * 
+     * @return A File, or null if spooling was disabled when the request arrived.
+     */
+    public File getSpoolFile() {
+        return spoolFile;
+    }
+    
+    /**
+     * Returns the time when the save request arrived.
+     * 
+     * @return A long, the arrival time in milliseconds since the epoch.
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+    
+    /**
+     * Returns the time taken to receive the saved recording.
+     * 
+     * @return A long, the time from arrival to the end of the body, in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("SaveRecord[%s, %d bytes, crc32=%08x, %s, spool=%s]", contentType,
+                bytes, crc32, analysis, spoolFile);
+    }
+}
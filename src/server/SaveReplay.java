@@ -0,0 +1,186 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * class SaveReplay
+ * 
+ * Replays the save requests recorded in a SaveJournal against a running server, either at their
+ * original pace, scaled by a speed factor, or as fast as possible. Lets traffic captured from a
+ * real test run be reused as a repeatable load on the server, without needing browsers.
+ * 
+ * Usage: SaveReplay journal-directory base-url [speed [concurrency]]
+ * 
+ * where a speed of 1 replays at the original pace, 2 at twice the pace, and 0 as fast as the
+ * connections allow.
+ * 
+ * @author wqian94
+ */
+public final class SaveReplay {
+    private static final int DEFAULT_CONCURRENCY = 8; // Default number of connections in flight.
+    private static final int COPY_BYTES = 16 * 1024; // Size of the chunks that bodies are sent in.
+    
+    // Headers that the connection sets for itself, and that must not be replayed.
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList("host",
+            "content-length", "connection", "transfer-encoding", "expect"));
+    
+    private SaveReplay() {
+        // Not instantiable.
+    }
+    
+    /**
+     * Runs a replay from the command line.
+     * 
+     * @param args
+     *            the journal directory, the base URL of the server, and optionally the speed and
+     *            the maximum number of requests in flight.
+     * @throws Exception
+     *             if the journal cannot be read or the replay is interrupted.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println(
+                    "Usage: SaveReplay journal-directory base-url [speed [concurrency]]");
+            System.exit(2);
+        }
+        
+        final double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        final int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CONCURRENCY;
+        final int failures = replay(new File(args[0]), args[1], speed, concurrency);
+        System.exit(0 == failures ? 0 : 1);
+    }
+    
+    /**
+     * Replays every request in a journal against a server, and waits for them all to finish.
+     * 
+     * @param directory
+     *            the directory holding the journal.
+     * @param baseUrl
+     *            the URL of the server to replay against, e.g. "http://localhost:8080". The URI of
+     *            each request is appended to this.
+     * @param speed
+     *            how much faster than the original pace to replay, or 0 to replay as fast as
+     *            possible.
+     * @param concurrency
+     *            the maximum number of requests in flight at once.
+     * @return An int, the number of requests that failed or did not receive a 2xx response.
+     * @throws IOException
+     *             if the journal cannot be read.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the replay to finish.
+     */
+    public static int replay(final File directory, final String baseUrl, final double speed,
+            final int concurrency) throws IOException, InterruptedException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Speed must be non-negative: " + speed);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        
+        final List<JournalEntry> entries = SaveJournal.read(directory);
+        final String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1)
+                : baseUrl;
+        final AtomicInteger failures = new AtomicInteger();
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(concurrency);
+        
+        Log.log(Log.INFO, "Replaying %d saves from %s to %s", entries.size(), directory, base);
+        final long startNanos = System.nanoTime();
+        final long firstOffset = entries.isEmpty() ? 0 : entries.get(0).getOffsetNanos();
+        for (final JournalEntry entry : entries) {
+            final long delay = 0 == speed ? 0
+                    : (long) ((entry.getOffsetNanos() - firstOffset) / speed);
+            executor.schedule(() -> {
+                try {
+                    final int status = send(base, entry);
+                    if (status / 100 != 2) {
+                        Log.log(Log.ERROR, "Replay of %s %s got status %d", entry.getMethod(),
+                                entry.getUri(), status);
+                        failures.incrementAndGet();
+                    }
+                } catch (Exception exp) {
+                    Log.log(Log.ERROR, "Replay of %s %s failed: %s", entry.getMethod(),
+                            entry.getUri(), exp);
+                    failures.incrementAndGet();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+        
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        final double seconds = (System.nanoTime() - startNanos) / 1e9;
+        Log.log(Log.INFO, "Replayed %d saves in %.3f s (%.1f/s), %d failed", entries.size(),
+                seconds, entries.size() / Math.max(seconds, 1e-9), failures.get());
+        return failures.get();
+    }
+    
+    /**
+     * Sends a single recorded request.
+     * 
+     * @param base
+     *            the base URL of the server, without a trailing slash.
+     * @param entry
+     *            the request to send.
+     * @return An int, the status code of the response.
+     * @throws IOException
+     *             if an error occurs while sending the request or reading the response.
+     */
+    private static int send(final String base, final JournalEntry entry) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(base + entry.getUri()).openConnection();
+        try {
+            final ByteBuffer body = entry.getBody();
+            connection.setRequestMethod(entry.getMethod());
+            for (final Map.Entry<String, String> header : entry.getHeaders()) {
+                if (!SKIPPED_HEADERS.contains(header.getKey().toLowerCase())) {
+                    connection.addRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            
+            if (body.hasRemaining() || "POST".equals(entry.getMethod())) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode((long) body.remaining());
+                try (final OutputStream out = connection.getOutputStream()) {
+                    final byte[] chunk = new byte[Math.min(COPY_BYTES, body.remaining())];
+                    while (body.hasRemaining()) {
+                        final int length = Math.min(chunk.length, body.remaining());
+                        body.get(chunk, 0, length);
+                        out.write(chunk, 0, length);
+                    }
+                }
+            }
+            
+            final int status = connection.getResponseCode();
+            final InputStream in =
+                    status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (null != in) {
+                try {
+                    final byte[] discard = new byte[COPY_BYTES];
+                    while (in.read(discard) >= 0) {
+                        // Drain the response so the connection can be reused.
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return status;
+        } catch (IOException exp) {
+            connection.disconnect(); // Don't return a broken connection to the keep-alive pool.
+            throw exp;
+        }
+    }
+}
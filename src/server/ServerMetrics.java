@@ -0,0 +1,368 @@
+package server;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * class ServerMetrics
+ * 
+ * Counts what an AuoServer does: requests, response statuses, bytes served, and latencies per
+ * route, the requests in flight, and how AuO.js is served from its cache. Every counter is a
+ * LongAdder, so recording is lock-free and cheap under contention, and reading a counter while
+ * requests are in progress gives a value that is current but not necessarily consistent with the
+ * other counters.
+ * 
+ * A request is timed from when AuoServer starts handling it until Jetty completes its response,
+ * which includes the time spent reading an asynchronous save. Jetty reports completed requests
+ * through the RequestLog interface.
+ * 
+ * @author wqian94
+ */
+public final class ServerMetrics implements RequestLog {
+    static final String FILES_ROUTE = "(files)"; // Route name for files under the served path.
+    static final String NOT_FOUND_ROUTE = "(unmatched)"; // Route name for requests that 404.
+    
+    // Request attributes, set by AuoServer when it starts handling a request.
+    private static final String START_ATTRIBUTE = ServerMetrics.class.getName() + ".start";
+    private static final String ROUTE_ATTRIBUTE = ServerMetrics.class.getName() + ".route";
+    
+    /**
+     * class RouteMetrics
+     * 
+     * The counters for a single route.
+     * 
+     * @author wqian94
+     */
+    public static final class RouteMetrics {
+        private final LongAdder requests; // Number of requests completed.
+        private final LongAdder bytes; // Number of bytes written in responses.
+        private final LongAdder[] statuses; // Number of responses in each class, 1xx to 5xx.
+        private final LatencyHistogram latency; // Latencies of the completed requests.
+        
+        /**
+         * Creates a new RouteMetrics, with every counter at 0.
+         */
+        private RouteMetrics() {
+            this.requests = new LongAdder();
+            this.bytes = new LongAdder();
+            this.statuses = new LongAdder[5];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+            this.latency = new LatencyHistogram();
+        }
+        
+        /**
+         * Returns the number of requests to this route that have completed.
+         * 
+         * @return A long, the request count.
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+        
+        /**
+         * Returns the number of bytes sent in responses from this route, including headers.
+         * 
+         * @return A long, the byte count.
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+        
+        /**
+         * Returns the number of responses from this route with a status in a given class.
+         * 
+         * @param statusClass
+         *            the class of status, from 1 (1xx) to 5 (5xx).
+         * @return A long, the response count.
+         */
+        public long getStatusCount(final int statusClass) {
+            if (statusClass < 1 || statusClass > statuses.length) {
+                throw new IllegalArgumentException("Invalid status class: " + statusClass);
+            }
+            return statuses[statusClass - 1].sum();
+        }
+        
+        /**
+         * Returns the latencies of the requests to this route.
+         * 
+         * @return A LatencyHistogram, which is live and must not be reset by the caller.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+    
+    private final long startMillis; // System.currentTimeMillis() when the metrics were created.
+    private final ConcurrentMap<String, RouteMetrics> routes; // The counters for each route.
+    private final LongAdder inFlight; // Number of requests started but not completed.
+    private final LongAdder auoJsHits; // Requests for AuO.js served from the cache.
+    private final LongAdder auoJsMisses; // Requests for AuO.js while it was not cached.
+    private final LongAdder auoJsReloads; // Successful reloads of the AuO.js cache.
+    private final LongAdder auoJsReloadFailures; // Failed reloads of the AuO.js cache.
+    
+    /**
+     * Creates a new ServerMetrics, with every counter at 0.
+     */
+    ServerMetrics() {
+        this.startMillis = System.currentTimeMillis();
+        this.routes = new ConcurrentHashMap<>();
+        this.inFlight = new LongAdder();
+        this.auoJsHits = new LongAdder();
+        this.auoJsMisses = new LongAdder();
+        this.auoJsReloads = new LongAdder();
+        this.auoJsReloadFailures = new LongAdder();
+    }
+    
+    /**
+     * Returns the counters for a route, creating them if needed.
+     * 
+     * @param route
+     *            the name of the route.
+     * @return A RouteMetrics, the counters for the route.
+     */
+    RouteMetrics forRoute(final String route) {
+        final RouteMetrics metrics = routes.get(route);
+        return null != metrics ? metrics : routes.computeIfAbsent(route, (name) -> {
+            return new RouteMetrics();
+        });
+    }
+    
+    /**
+     * Marks the start of a request, which will be counted towards a route once it completes.
+     * 
+     * @param request
+     *            the request being started.
+     * @param route
+     *            the counters of the route that the request is for.
+     */
+    void begin(final HttpServletRequest request, final RouteMetrics route) {
+        if (null == request.getAttribute(START_ATTRIBUTE)) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            inFlight.increment();
+        }
+        request.setAttribute(ROUTE_ATTRIBUTE, route);
+    }
+    
+    /**
+     * Records a completed request. Invoked by Jetty once the response is complete.
+     * 
+     * @param request
+     *            the completed request.
+     * @param response
+     *            the response to the request.
+     */
+    @Override
+    public void log(final Request request, final Response response) {
+        final Object start = request.getAttribute(START_ATTRIBUTE);
+        final Object route = request.getAttribute(ROUTE_ATTRIBUTE);
+        if (!(start instanceof Long) || !(route instanceof RouteMetrics)) {
+            return; // Never started by AuoServer.
+        }
+        inFlight.decrement();
+        
+        final RouteMetrics metrics = (RouteMetrics) route;
+        metrics.latency.record(System.nanoTime() - (Long) start);
+        metrics.requests.increment();
+        metrics.bytes.add(response.getHttpChannel().getBytesWritten());
+        final int statusClass = response.getStatus() / 100;
+        if (statusClass >= 1 && statusClass <= metrics.statuses.length) {
+            metrics.statuses[statusClass - 1].increment();
+        }
+    }
+    
+    /**
+     * Counts a request for AuO.js.
+     * 
+     * @param hit
+     *            whether AuO.js was served from the cache.
+     */
+    void countAuoJs(final boolean hit) {
+        (hit ? auoJsHits : auoJsMisses).increment();
+    }
+    
+    /**
+     * Counts a reload of the AuO.js cache.
+     * 
+     * @param succeeded
+     *            whether the reload succeeded.
+     */
+    void countAuoJsReload(final boolean succeeded) {
+        (succeeded ? auoJsReloads : auoJsReloadFailures).increment();
+    }
+    
+    /**
+     * Returns the counters for each route that has received a request. Files under the served
+     * path are counted under FILES_ROUTE, and requests that match neither a route nor a file are
+     * counted under NOT_FOUND_ROUTE.
+     * 
+     * @return An unmodifiable Map<String, RouteMetrics> from route names to their counters, sorted
+     *         by name.
+     */
+    public Map<String, RouteMetrics> getRoutes() {
+        return Collections.unmodifiableMap(new TreeMap<>(routes));
+    }
+    
+    /**
+     * Returns the number of requests that have started but not completed.
+     * 
+     * @return A long, the number of requests in flight.
+     */
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+    
+    /**
+     * Returns the number of requests for AuO.js that were served from the cache.
+     * 
+     * @return A long, the hit count.
+     */
+    public long getAuoJsHits() {
+        return auoJsHits.sum();
+    }
+    
+    /**
+     * Returns the number of requests for AuO.js that found it missing from the cache, e.g.
+     * because it could not be read, and were answered with a 404.
+     * 
+     * @return A long, the miss count.
+     */
+    public long getAuoJsMisses() {
+        return auoJsMisses.sum();
+    }
+    
+    /**
+     * Returns the number of times the AuO.js cache was reloaded successfully.
+     * 
+     * @return A long, the reload count.
+     */
+    public long getAuoJsReloads() {
+        return auoJsReloads.sum();
+    }
+    
+    /**
+     * Returns the number of times reloading the AuO.js cache failed.
+     * 
+     * @return A long, the failure count.
+     */
+    public long getAuoJsReloadFailures() {
+        return auoJsReloadFailures.sum();
+    }
+    
+    /**
+     * Renders the metrics as plain text, one metric per line.
+     * 
+     * @return A String, the rendered metrics.
+     */
+    public String toText() {
+        final StringBuilder text = new StringBuilder();
+        text.append(format("uptime_seconds %.3f%n",
+                (System.currentTimeMillis() - startMillis) / 1000.0));
+        text.append(format("in_flight %d%n", getInFlight()));
+        text.append(format("auojs_hits %d%n", getAuoJsHits()));
+        text.append(format("auojs_misses %d%n", getAuoJsMisses()));
+        text.append(format("auojs_reloads %d%n", getAuoJsReloads()));
+        text.append(format("auojs_reload_failures %d%n", getAuoJsReloadFailures()));
+        for (final Map.Entry<String, RouteMetrics> entry : getRoutes().entrySet()) {
+            final String name = entry.getKey();
+            final RouteMetrics route = entry.getValue();
+            final LatencyHistogram latency = route.getLatency();
+            text.append(format("route %s requests %d%n", name, route.getRequests()));
+            text.append(format("route %s bytes %d%n", name, route.getBytes()));
+            for (int i = 1; i <= route.statuses.length; i++) {
+                text.append(format("route %s status_%dxx %d%n", name, i,
+                        route.getStatusCount(i)));
+            }
+            text.append(format("route %s latency_ms mean %.3f p50 %.3f p90 %.3f "
+                    + "p99 %.3f p999 %.3f max %.3f%n", name, latency.getMeanMillis(),
+                    latency.getPercentileMillis(50), latency.getPercentileMillis(90),
+                    latency.getPercentileMillis(99), latency.getPercentileMillis(99.9),
+                    latency.getMaxMillis()));
+        }
+        return text.toString();
+    }
+    
+    /**
+     * Renders the metrics as a JSON object.
+     * 
+     * @return A String, the rendered metrics.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder();
+        json.append(format("{\"uptimeSeconds\":%.3f,\"inFlight\":%d,",
+                (System.currentTimeMillis() - startMillis) / 1000.0, getInFlight()));
+        json.append(format("\"auoJs\":{\"hits\":%d,\"misses\":%d,\"reloads\":%d,"
+                + "\"reloadFailures\":%d},", getAuoJsHits(), getAuoJsMisses(), getAuoJsReloads(),
+                getAuoJsReloadFailures()));
+        json.append("\"routes\":{");
+        boolean first = true;
+        for (final Map.Entry<String, RouteMetrics> entry : getRoutes().entrySet()) {
+            final RouteMetrics route = entry.getValue();
+            final LatencyHistogram latency = route.getLatency();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(escapeJson(entry.getKey())).append("\":{");
+            json.append(format("\"requests\":%d,\"bytes\":%d,\"statuses\":{",
+                    route.getRequests(), route.getBytes()));
+            for (int i = 1; i <= route.statuses.length; i++) {
+                json.append(format("%s\"%dxx\":%d", 1 == i ? "" : ",", i,
+                        route.getStatusCount(i)));
+            }
+            json.append(format("},\"latencyMillis\":{\"mean\":%.3f,\"p50\":%.3f,"
+                    + "\"p90\":%.3f,\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f}}",
+                    latency.getMeanMillis(), latency.getPercentileMillis(50),
+                    latency.getPercentileMillis(90), latency.getPercentileMillis(99),
+                    latency.getPercentileMillis(99.9), latency.getMaxMillis()));
+        }
+        json.append("}}");
+        return json.toString();
+    }
+    
+    /**
+     * Formats a string independently of the default locale, so that numbers are always written
+     * with a decimal point.
+     * 
+     * @param format
+     *            the format string.
+     * @param arguments
+     *            the arguments to the format string.
+     * @return A String, the formatted string.
+     */
+    private static String format(final String format, final Object... arguments) {
+        return String.format(Locale.ROOT, format, arguments);
+    }
+    
+    /**
+     * Escapes a string for use inside a JSON string literal.
+     * 
+     * @param string
+     *            the string to escape.
+     * @return A String, with quotes, backslashes, and control characters escaped.
+     */
+    private static String escapeJson(final String string) {
+        final StringBuilder escaped = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if ('"' == c || '\\' == c) {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
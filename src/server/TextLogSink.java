@@ -0,0 +1,58 @@
+package server;
+
+import java.io.PrintStream;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * class TextLogSink
+ * 
+ * Writes log entries as lines of free text, each prefixed by its timestamp and the tag of its
+ * channel. This is the format that Log writes to System.err by default.
+ * 
+ * @author wqian94
+ */
+public final class TextLogSink implements LogSink {
+    private final PrintStream out; // The stream to write the entries to.
+    private final StringBuilder buffer; // Entries written since the last flush.
+    private final TimestampCache timestamps; // Formats the timestamps of the entries.
+    
+    /**
+     * Creates a new TextLogSink.
+     * 
+     * @param out
+     *            the stream to write the entries to.
+     */
+    public TextLogSink(final PrintStream out) {
+        this.out = out;
+        this.buffer = new StringBuilder();
+        this.timestamps =
+                new TimestampCache(DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss.SSS:"));
+    }
+    
+    @Override
+    public synchronized void write(final long millis, final Log channel, final String thread,
+            final String test, final String driver, final CharSequence message) {
+        buffer.append(timestamps.format(millis));
+        if (null != channel) {
+            buffer.append(channel.getTag());
+        }
+        buffer.append(message).append(System.lineSeparator());
+    }
+    
+    @Override
+    public synchronized void flush() {
+        if (buffer.length() > 0) {
+            out.print(buffer);
+            out.flush();
+            buffer.setLength(0);
+        }
+    }
+    
+    /**
+     * Writes out any buffered entries. The stream is left open.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,197 @@
+package server;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * class TimerWheel
+ * 
+ * A hashed timer wheel: a ring of buckets, one per tick, that a single thread sweeps once per
+ * tick, running the tasks in the current bucket that are due. Scheduling and expiring a task take
+ * constant time however many are pending, and no thread is held per pending task, so thousands of
+ * responses can be delayed at once. Tasks are only accurate to a tick, are never run early, and
+ * run on the wheel's thread, so they must be short: typically, handing work to another thread.
+ * 
+ * The thread is started on the first schedule, so an unused wheel costs nothing.
+ * 
+ * @author wqian94
+ */
+final class TimerWheel implements Closeable {
+    static final long DEFAULT_TICK_MILLIS = 5; // Resolution of the default wheel.
+    static final int DEFAULT_WHEEL_SIZE = 512; // Buckets in the default wheel, about 2.5 seconds.
+    
+    private final String name; // The name of the wheel's thread.
+    private final long tickNanos; // The duration of a tick, in nanoseconds.
+    private final int mask; // Masks a tick number into a bucket index.
+    private final Timeout[] buckets; // The head of each bucket's list of timeouts.
+    private final ConcurrentLinkedQueue<Timeout> pending; // Scheduled but not yet in a bucket.
+    
+    private volatile Thread thread; // The thread sweeping the wheel, or null if not yet started.
+    private long startNanos; // System.nanoTime() when the thread started.
+    private volatile boolean closed; // Whether the wheel has been closed.
+    
+    /**
+     * A scheduled task, linked into its bucket.
+     */
+    private static final class Timeout {
+        private final Runnable task; // The task to run.
+        private final long deadlineNanos; // System.nanoTime() at which the task is due.
+        private long rounds; // Sweeps of the wheel left before the task is due.
+        private Timeout next; // The next timeout in the same bucket.
+        
+        /**
+         * Creates a new Timeout.
+         * 
+         * @param task
+         *            the task to run.
+         * @param deadlineNanos
+         *            System.nanoTime() at which the task is due.
+         */
+        private Timeout(final Runnable task, final long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+    
+    /**
+     * Creates a new TimerWheel.
+     * 
+     * @param name
+     *            the name of the wheel's thread.
+     * @param tickMillis
+     *            the duration of a tick, in milliseconds.
+     * @param wheelSize
+     *            the number of buckets, a power of two. Tasks due more than a revolution away
+     *            wait out the extra revolutions in their bucket.
+     */
+    TimerWheel(final String name, final long tickMillis, final int wheelSize) {
+        if (tickMillis < 1 || wheelSize < 1 || 0 != (wheelSize & (wheelSize - 1))) {
+            throw new IllegalArgumentException(
+                    "Invalid timer wheel: " + tickMillis + "ms, " + wheelSize + " buckets");
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.thread = null;
+        this.closed = false;
+    }
+    
+    /**
+     * Schedules a task to run on the wheel's thread once a delay has passed.
+     * 
+     * @param task
+     *            the task to run, which must not block.
+     * @param delayMillis
+     *            the delay, in milliseconds.
+     * @throws IllegalStateException
+     *             if the wheel has been closed.
+     */
+    void schedule(final Runnable task, final long delayMillis) {
+        if (closed) {
+            throw new IllegalStateException("Timer wheel " + name + " is closed.");
+        }
+        pending.add(new Timeout(task,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis))));
+        if (null == thread) {
+            startThread();
+        }
+    }
+    
+    /**
+     * Starts the wheel's thread, unless it has already been started.
+     */
+    private synchronized void startThread() {
+        if (null != thread) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        final Thread sweeper = new Thread(this::run, name);
+        sweeper.setDaemon(true);
+        sweeper.start();
+        thread = sweeper;
+    }
+    
+    /**
+     * Sweeps the wheel once per tick until it is closed.
+     */
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            final long tickStart = startNanos + tick * tickNanos;
+            long wait = tickStart - System.nanoTime();
+            while (wait > 0 && !closed) {
+                LockSupport.parkNanos(this, wait);
+                wait = tickStart - System.nanoTime();
+            }
+            transferPending(tick);
+            expire(tick);
+            tick++;
+        }
+        pending.clear();
+    }
+    
+    /**
+     * Moves the newly scheduled timeouts into their buckets. Timeouts that are already due go in
+     * the bucket for the current tick.
+     * 
+     * @param tick
+     *            the number of the current tick.
+     */
+    private void transferPending(final long tick) {
+        for (Timeout timeout = pending.poll(); null != timeout; timeout = pending.poll()) {
+            // Round up, so that the timeout's tick never starts before it is due.
+            final long due = Math.max(tick,
+                    (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            final int bucket = (int) (due & mask);
+            timeout.rounds = (due - tick) / buckets.length;
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+    
+    /**
+     * Runs the timeouts in the bucket for the current tick that are due, and counts down the
+     * others.
+     * 
+     * @param tick
+     *            the number of the current tick.
+     */
+    private void expire(final long tick) {
+        final int bucket = (int) (tick & mask);
+        Timeout previous = null;
+        for (Timeout timeout = buckets[bucket]; null != timeout; timeout = timeout.next) {
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                previous = timeout;
+                continue;
+            }
+            
+            if (null == previous) {
+                buckets[bucket] = timeout.next;
+            } else {
+                previous.next = timeout.next;
+            }
+            try {
+                timeout.task.run();
+            } catch (Exception exp) {
+                Log.log(Log.ERROR, "Timer task failed on %s: %s", name, exp);
+            }
+        }
+    }
+    
+    /**
+     * Stops the wheel's thread. Tasks that have not yet run are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Thread sweeper = thread;
+        if (null != sweeper) {
+            LockSupport.unpark(sweeper);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * class TimestampCache
+ * 
+ * Formats log timestamps, reusing the last formatted timestamp for entries made within the same
+ * millisecond, which is most of them when logging is busy.
+ * 
+ * @author wqian94
+ */
+final class TimestampCache {
+    private final DateTimeFormatter formatter; // Formats the timestamps.
+    private volatile Cached last; // The most recently formatted timestamp, or null if none.
+    
+    /**
+     * A formatted timestamp, with the time it was formatted from.
+     */
+    private static final class Cached {
+        private final long millis; // The time, in milliseconds since the epoch.
+        private final String text; // The formatted time.
+        
+        /**
+         * Creates a new Cached.
+         * 
+         * @param millis
+         *            the time, in milliseconds since the epoch.
+         * @param text
+         *            the formatted time.
+         */
+        private Cached(final long millis, final String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+    
+    /**
+     * Creates a new TimestampCache.
+     * 
+     * @param formatter
+     *            the formatter for the timestamps, which are in the local time zone.
+     */
+    TimestampCache(final DateTimeFormatter formatter) {
+        this.formatter = formatter;
+        this.last = null;
+    }
+    
+    /**
+     * Formats a time.
+     * 
+     * @param millis
+     *            the time, in milliseconds since the epoch.
+     * @return A String, the formatted time.
+     */
+    String format(final long millis) {
+        final Cached cached = last;
+        if (null != cached && millis == cached.millis) {
+            return cached.text;
+        }
+        final String text = formatter.format(Log.toLocalDateTime(millis));
+        last = new Cached(millis, text);
+        return text;
+    }
+}
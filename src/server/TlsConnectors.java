@@ -0,0 +1,179 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * class TlsConnectors
+ * 
+ * Builds the TLS connectors for AuoServer. HTTP/2 is negotiated through ALPN when the JVM supports
+ * it, so that the test page and AuO.js share one multiplexed connection, and HTTP/1.1 is used
+ * otherwise. TLS sessions are cached so that reconnecting browsers can resume them instead of
+ * repeating the full handshake. For tests, a self-signed keystore for localhost can be generated
+ * on demand.
+ * 
+ * @author wqian94
+ */
+final class TlsConnectors {
+    private static final String HTTP_1_1 = "http/1.1"; // ALPN name of HTTP/1.1.
+    private static final String HTTP_2 = "h2"; // ALPN name of HTTP/2 over TLS.
+    private static final int SESSION_CACHE_SIZE = 4096; // Number of TLS sessions to keep.
+    private static final int SESSION_TIMEOUT_SECONDS = 3600; // How long TLS sessions are resumable.
+    private static final long KEYTOOL_TIMEOUT_SECONDS = 60; // How long to wait for keytool.
+    
+    private static File selfSignedKeyStore = null; // The generated keystore, once there is one.
+    private static String selfSignedPassword = null; // The password of the generated keystore.
+    
+    private TlsConnectors() {
+        // Not instantiable.
+    }
+    
+    /**
+     * Creates a TLS connector that serves HTTP/2 when ALPN is available, and HTTP/1.1 otherwise.
+     * 
+     * @param server
+     *            the Jetty server that the connector belongs to.
+     * @param acceptors
+     *            the number of acceptor threads, or -1 for Jetty's default.
+     * @param selectors
+     *            the number of selector threads, or -1 for Jetty's default.
+     * @param port
+     *            the port to listen on. A value of 0 results in a randomly-chosen open port.
+     * @param keyStore
+     *            the JKS keystore holding the server's certificate, or null to use a generated
+     *            self-signed certificate for localhost.
+     * @param password
+     *            the password of the keystore and its key. Ignored if keyStore is null.
+     * @return A ServerConnector, listening on the given port but not yet added to the server.
+     * @throws IOException
+     *             if a self-signed keystore is needed but cannot be generated.
+     */
+    static ServerConnector create(final Server server, final int acceptors, final int selectors,
+            final int port, final File keyStore, final String password) throws IOException {
+        final boolean http2 = isAlpnAvailable();
+        
+        final SslContextFactory sslContextFactory = new SslContextFactory();
+        if (null == keyStore) {
+            sslContextFactory.setKeyStorePath(getSelfSignedKeyStore().getAbsolutePath());
+            sslContextFactory.setKeyStorePassword(selfSignedPassword);
+        } else {
+            sslContextFactory.setKeyStorePath(keyStore.getAbsolutePath());
+            sslContextFactory.setKeyStorePassword(password);
+        }
+        sslContextFactory.setSessionCachingEnabled(true);
+        sslContextFactory.setSslSessionCacheSize(SESSION_CACHE_SIZE);
+        sslContextFactory.setSslSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        if (http2) {
+            // HTTP/2 forbids many older cipher suites, so make sure an allowed one is preferred.
+            sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+            sslContextFactory.setUseCipherSuitesOrder(true);
+        }
+        
+        final HttpConfiguration config = new HttpConfiguration();
+        config.setSecureScheme("https");
+        config.setSecurePort(port);
+        config.addCustomizer(new SecureRequestCustomizer());
+        final HttpConnectionFactory http11 = new HttpConnectionFactory(config);
+        
+        final ServerConnector connector;
+        if (http2) {
+            final ALPNServerConnectionFactory alpn =
+                    new ALPNServerConnectionFactory(HTTP_2, HTTP_1_1);
+            alpn.setDefaultProtocol(HTTP_1_1);
+            connector = new ServerConnector(server, acceptors, selectors,
+                    new SslConnectionFactory(sslContextFactory, alpn.getProtocol()), alpn,
+                    new HTTP2ServerConnectionFactory(config), http11);
+        } else {
+            Log.log(Log.INFO, "ALPN is not available, so TLS connections will use HTTP/1.1 only.");
+            connector = new ServerConnector(server, acceptors, selectors,
+                    new SslConnectionFactory(sslContextFactory, HTTP_1_1), http11);
+        }
+        connector.setPort(port);
+        return connector;
+    }
+    
+    /**
+     * Determines whether ALPN, which browsers require to negotiate HTTP/2 over TLS, is available.
+     * On Java 8, this requires the alpn-boot jar matching the JVM to be on the boot classpath.
+     * 
+     * @return A boolean, whether HTTP/2 can be offered.
+     */
+    static boolean isAlpnAvailable() {
+        try {
+            // The ALPN classes only work when loaded by the bootstrap class loader.
+            Class.forName("org.eclipse.jetty.alpn.ALPN", false, null);
+            return true;
+        } catch (ClassNotFoundException exp) {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns a keystore holding a self-signed certificate for localhost, generating it with the
+     * JDK's keytool the first time it is needed. The keystore is deleted when the JVM exits.
+     * 
+     * @return A File, the JKS keystore, whose password is selfSignedPassword.
+     * @throws IOException
+     *             if keytool cannot be run or fails.
+     */
+    private static synchronized File getSelfSignedKeyStore() throws IOException {
+        if (null != selfSignedKeyStore) {
+            return selfSignedKeyStore;
+        }
+        
+        final String password = new BigInteger(130, new SecureRandom()).toString(32);
+        final File keyStore = File.createTempFile("auo-", ".jks");
+        keyStore.delete(); // keytool refuses to write to an existing, empty keystore.
+        keyStore.deleteOnExit();
+        
+        final File keytool = new File(System.getProperty("java.home"), "bin/keytool");
+        final ProcessBuilder pb = new ProcessBuilder(
+                new String[] { keytool.canExecute() ? keytool.getPath() : "keytool", "-genkeypair",
+                        "-alias", "auo", "-keyalg", "RSA", "-keysize", "2048", "-validity", "365",
+                        "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                        "-storetype", "JKS", "-keystore", keyStore.getPath(), "-storepass",
+                        password, "-keypass", password });
+        pb.redirectErrorStream(true);
+        try {
+            final Process process = pb.start();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (final InputStream in = process.getInputStream()) {
+                final byte[] buffer = new byte[1024];
+                for (int read; (read = in.read(buffer)) >= 0;) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            if (!process.waitFor(KEYTOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                throw new IOException("keytool timed out.");
+            }
+            if (0 != process.exitValue() || !keyStore.isFile()) {
+                throw new IOException("keytool failed with exit code " + process.exitValue()
+                        + ": " + output.toString().trim());
+            }
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating keystore.", exp);
+        }
+        
+        Log.log(Log.INFO, "Generated self-signed keystore at %s.", keyStore);
+        selfSignedPassword = password;
+        selfSignedKeyStore = keyStore;
+        return keyStore;
+    }
+}
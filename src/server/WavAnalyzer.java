@@ -0,0 +1,390 @@
+package server;
+
+/**
+ * class WavAnalyzer
+ * 
+ * Analyzes a WAV recording as its bytes stream in, in a single pass and in constant memory. The
+ * RIFF header and chunks are parsed incrementally, so the bytes can be fed in chunks of any size,
+ * and samples are decoded straight out of the fed arrays. Supports integer PCM with 8, 16, 24, or
+ * 32 bits per sample, and IEEE floating point with 32 or 64 bits per sample, including the
+ * WAVE_FORMAT_EXTENSIBLE variants of both.
+ * 
+ * Since some clients wrap the recording in a multipart form, anything before the "RIFF" signature
+ * is skipped, as long as the signature appears within the first MAX_PREAMBLE bytes.
+ * 
+ * @author wqian94
+ */
+final class WavAnalyzer {
+    static final double SILENCE_THRESHOLD = 0.001; // About -60 dBFS.
+    
+    private static final int MAX_PREAMBLE = 64 * 1024; // How far to search for the signature.
+    private static final byte[] RIFF = { 'R', 'I', 'F', 'F' };
+    private static final int FORMAT_PCM = 0x0001;
+    private static final int FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final int MAX_FMT_BYTES = 40; // Size of the largest fmt chunk that we parse.
+    
+    /**
+     * enum State
+     * 
+     * The parts of the file that the analyzer can be in the middle of.
+     */
+    private enum State {
+        SEARCHING, RIFF_HEADER, CHUNK_HEADER, FMT, SKIP, DATA, INVALID;
+    }
+    
+    private final byte[] header; // Accumulates fixed-size headers that span fed chunks.
+    private State state; // The part of the file that the next byte belongs to.
+    private int headerLength; // Number of bytes accumulated in the header buffer.
+    private int headerNeeded; // Number of bytes that the current header needs.
+    private int matched; // Number of bytes of the RIFF signature matched so far.
+    private long searched; // Number of bytes searched for the RIFF signature.
+    private long skipRemaining; // Number of bytes left to skip in the current chunk.
+    private long dataRemaining; // Number of bytes left in the data chunk.
+    private boolean dataPadded; // Whether the data chunk is followed by a pad byte.
+    private boolean dataFound; // Whether the data chunk has been reached.
+    
+    private int formatTag; // FORMAT_PCM or FORMAT_IEEE_FLOAT, or 0 before the fmt chunk.
+    private int channels; // The number of channels per frame.
+    private int sampleRate; // The number of frames per second.
+    private int bitsPerSample; // The number of bits in each sample.
+    private int blockAlign; // The number of bytes in each frame.
+    private byte[] frame; // Accumulates a frame that spans fed chunks.
+    private int frameLength; // Number of bytes accumulated in the frame buffer.
+    
+    private long frames; // Number of complete frames decoded.
+    private long silentFrames; // Number of frames in which every sample is silent.
+    private double peak; // Largest absolute sample value.
+    private double sumSquares; // Sum of the squares of all sample values.
+    
+    /**
+     * Creates a new WavAnalyzer, ready for the first byte of a recording.
+     */
+    WavAnalyzer() {
+        this.header = new byte[MAX_FMT_BYTES];
+        this.state = State.SEARCHING;
+    }
+    
+    /**
+     * Feeds the next bytes of the recording to the analyzer.
+     * 
+     * @param bytes
+     *            the array containing the bytes.
+     * @param offset
+     *            the index of the first byte to feed.
+     * @param length
+     *            the number of bytes to feed.
+     */
+    void update(final byte[] bytes, final int offset, final int length) {
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            switch (state) {
+                case SEARCHING:
+                    i = search(bytes, i, end);
+                    break;
+                case RIFF_HEADER:
+                case CHUNK_HEADER:
+                case FMT:
+                    final int copied = Math.min(headerNeeded - headerLength, end - i);
+                    System.arraycopy(bytes, i, header, headerLength, copied);
+                    headerLength += copied;
+                    i += copied;
+                    if (headerLength == headerNeeded) {
+                        onHeader();
+                    }
+                    break;
+                case SKIP:
+                    final int skipped = (int) Math.min(skipRemaining, end - i);
+                    skipRemaining -= skipped;
+                    i += skipped;
+                    if (0 == skipRemaining) {
+                        expect(State.CHUNK_HEADER, 8);
+                    }
+                    break;
+                case DATA:
+                    final int decoded = (int) Math.min(dataRemaining, end - i);
+                    decode(bytes, i, decoded);
+                    dataRemaining -= decoded;
+                    i += decoded;
+                    if (0 == dataRemaining) {
+                        skipRemaining = dataPadded ? 1 : 0;
+                        state = State.SKIP;
+                    }
+                    break;
+                default: // INVALID, so nothing more to learn.
+                    return;
+            }
+        }
+    }
+    
+    /**
+     * Searches for the RIFF signature.
+     * 
+     * @param bytes
+     *            the array containing the bytes.
+     * @param i
+     *            the index of the first byte to search.
+     * @param end
+     *            the index after the last byte to search.
+     * @return An int, the index of the first byte that was not searched.
+     */
+    private int search(final byte[] bytes, int i, final int end) {
+        while (i < end) {
+            final byte b = bytes[i++];
+            if (RIFF[matched] == b) {
+                matched++;
+            } else {
+                matched = RIFF[0] == b ? 1 : 0;
+            }
+            
+            if (RIFF.length == matched) {
+                expect(State.RIFF_HEADER, 8);
+                break;
+            } else if (++searched > MAX_PREAMBLE) {
+                state = State.INVALID;
+                break;
+            }
+        }
+        return i;
+    }
+    
+    /**
+     * Moves to a state that starts by accumulating a fixed-size header.
+     * 
+     * @param next
+     *            the state to move to.
+     * @param needed
+     *            the number of bytes in the header.
+     */
+    private void expect(final State next, final int needed) {
+        state = next;
+        headerLength = 0;
+        headerNeeded = needed;
+    }
+    
+    /**
+     * Interprets a fully-accumulated header, and moves to the state that follows it.
+     */
+    private void onHeader() {
+        switch (state) {
+            case RIFF_HEADER: // Size of the RIFF chunk, then the WAVE form type.
+                if ('W' == header[4] && 'A' == header[5] && 'V' == header[6] && 'E' == header[7]) {
+                    expect(State.CHUNK_HEADER, 8);
+                } else {
+                    state = State.INVALID;
+                }
+                break;
+            case CHUNK_HEADER: // Chunk ID, then size of the chunk.
+                final long size = readInt(header, 4) & 0xFFFFFFFFL;
+                if (isChunk("fmt ")) {
+                    if (size < 16) {
+                        state = State.INVALID;
+                    } else {
+                        expect(State.FMT, (int) Math.min(size, MAX_FMT_BYTES));
+                        skipRemaining = size - headerNeeded + (size & 1);
+                    }
+                } else if (isChunk("data")) {
+                    if (0 == formatTag) {
+                        state = State.INVALID; // Samples can't be decoded without a format.
+                    } else {
+                        // Streamed recordings may not know their length up front.
+                        dataRemaining = 0 == size || 0xFFFFFFFFL == size ? Long.MAX_VALUE : size;
+                        dataPadded = 1 == (size & 1);
+                        dataFound = true;
+                        state = State.DATA;
+                    }
+                } else {
+                    skipRemaining = size + (size & 1);
+                    state = State.SKIP;
+                }
+                break;
+            case FMT:
+                parseFormat();
+                if (State.INVALID != state) {
+                    state = State.SKIP; // The rest of the chunk, as set up in CHUNK_HEADER.
+                }
+                break;
+            default:
+                throw new IllegalStateException("No header in state " + state);
+        }
+    }
+    
+    /**
+     * Determines whether the accumulated chunk header has the given ID.
+     * 
+     * @param id
+     *            the four-character chunk ID.
+     * @return A boolean, whether the chunk has the ID.
+     */
+    private boolean isChunk(final String id) {
+        for (int i = 0; i < 4; i++) {
+            if (id.charAt(i) != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Parses the accumulated fmt chunk, and validates that its format can be decoded.
+     */
+    private void parseFormat() {
+        int tag = readShort(header, 0) & 0xFFFF;
+        channels = readShort(header, 2) & 0xFFFF;
+        sampleRate = readInt(header, 4);
+        blockAlign = readShort(header, 12) & 0xFFFF;
+        bitsPerSample = readShort(header, 14) & 0xFFFF;
+        if (FORMAT_EXTENSIBLE == tag && MAX_FMT_BYTES == headerNeeded) {
+            tag = readShort(header, 24) & 0xFFFF; // The start of the sub-format GUID.
+        }
+        
+        final boolean decodable = FORMAT_PCM == tag
+                ? 8 == bitsPerSample || 16 == bitsPerSample || 24 == bitsPerSample
+                        || 32 == bitsPerSample
+                : FORMAT_IEEE_FLOAT == tag && (32 == bitsPerSample || 64 == bitsPerSample);
+        if (!decodable || channels < 1 || sampleRate < 1
+                || blockAlign != channels * (bitsPerSample / 8)) {
+            state = State.INVALID;
+            return;
+        }
+        
+        formatTag = tag;
+        frame = new byte[blockAlign];
+        frameLength = 0;
+    }
+    
+    /**
+     * Decodes samples from the data chunk, carrying over any partial frame at the end.
+     * 
+     * @param bytes
+     *            the array containing the samples.
+     * @param offset
+     *            the index of the first byte of samples.
+     * @param length
+     *            the number of bytes of samples.
+     */
+    private void decode(final byte[] bytes, final int offset, final int length) {
+        final int end = offset + length;
+        int i = offset;
+        
+        // Complete the frame carried over from the previous chunk.
+        if (frameLength > 0) {
+            final int copied = Math.min(blockAlign - frameLength, length);
+            System.arraycopy(bytes, i, frame, frameLength, copied);
+            frameLength += copied;
+            i += copied;
+            if (frameLength < blockAlign) {
+                return;
+            }
+            decodeFrame(frame, 0);
+            frameLength = 0;
+        }
+        
+        for (; i + blockAlign <= end; i += blockAlign) {
+            decodeFrame(bytes, i);
+        }
+        
+        frameLength = end - i;
+        System.arraycopy(bytes, i, frame, 0, frameLength);
+    }
+    
+    /**
+     * Decodes one frame, accumulating its samples into the statistics.
+     * 
+     * @param bytes
+     *            the array containing the frame.
+     * @param offset
+     *            the index of the first byte of the frame.
+     */
+    private void decodeFrame(final byte[] bytes, final int offset) {
+        final int bytesPerSample = bitsPerSample / 8;
+        boolean silent = true;
+        for (int channel = 0, i = offset; channel < channels; channel++, i += bytesPerSample) {
+            final double sample = Math.abs(decodeSample(bytes, i));
+            peak = Math.max(peak, sample);
+            sumSquares += sample * sample;
+            silent &= sample < SILENCE_THRESHOLD;
+        }
+        
+        frames++;
+        if (silent) {
+            silentFrames++;
+        }
+    }
+    
+    /**
+     * Decodes one sample, normalized to the range [-1, 1].
+     * 
+     * @param bytes
+     *            the array containing the sample.
+     * @param i
+     *            the index of the first byte of the sample.
+     * @return A double, the normalized sample value.
+     */
+    private double decodeSample(final byte[] bytes, final int i) {
+        if (FORMAT_IEEE_FLOAT == formatTag) {
+            if (32 == bitsPerSample) {
+                return Float.intBitsToFloat(readInt(bytes, i));
+            }
+            return Double.longBitsToDouble(
+                    (readInt(bytes, i) & 0xFFFFFFFFL) | (long) readInt(bytes, i + 4) << 32);
+        }
+        
+        switch (bitsPerSample) {
+            case 8: // Unsigned.
+                return ((bytes[i] & 0xFF) - 128) / 128.0;
+            case 16:
+                return readShort(bytes, i) / 32768.0;
+            case 24:
+                return ((bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8 | bytes[i + 2] << 16)
+                        / 8388608.0;
+            default: // 32.
+                return readInt(bytes, i) / 2147483648.0;
+        }
+    }
+    
+    /**
+     * Reads a little-endian 16-bit integer.
+     * 
+     * @param bytes
+     *            the array to read from.
+     * @param i
+     *            the index of the first byte.
+     * @return A short, the integer.
+     */
+    private static short readShort(final byte[] bytes, final int i) {
+        return (short) ((bytes[i] & 0xFF) | bytes[i + 1] << 8);
+    }
+    
+    /**
+     * Reads a little-endian 32-bit integer.
+     * 
+     * @param bytes
+     *            the array to read from.
+     * @param i
+     *            the index of the first byte.
+     * @return An int, the integer.
+     */
+    private static int readInt(final byte[] bytes, final int i) {
+        return (bytes[i] & 0xFF) | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF) << 16
+                | bytes[i + 3] << 24;
+    }
+    
+    /**
+     * Summarizes the recording fed so far. Requires that the fmt chunk and the start of the data
+     * chunk have been fed.
+     * 
+     * @return An AudioAnalysis of the recording, or null if it is not a WAV recording that can be
+     *         decoded.
+     */
+    AudioAnalysis finish() {
+        if (!dataFound) {
+            return null;
+        }
+        
+        final double rms = 0 == frames ? 0 : Math.sqrt(sumSquares / (frames * channels));
+        return new AudioAnalysis("wav", sampleRate, channels, bitsPerSample, frames, peak, rms,
+                silentFrames);
+    }
+}
@@ -1,40 +1,139 @@
 package tests;
 
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.junit.After;
-import org.junit.AfterClass;
-import org.junit.BeforeClass;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
-import org.openqa.selenium.By;
+import org.junit.rules.TestName;
+import org.junit.rules.TestRule;
+import org.junit.runners.model.Statement;
 import org.openqa.selenium.WebDriver;
 import client.Browser;
 import client.Web;
 import server.AuoServer;
+import server.Log;
 
 /**
  * AbstractAuoTest
  * 
  * Abstract class for the AuO test suite, which deals with most of the common setup and teardown.
  * 
+ * Each test class gets its own server and Web environment, so that classes can run concurrently
+ * (see ConcurrentComputer). The tests of a class share these, and may also run concurrently unless
+ * the class is marked Sequential; each test only cleans up the drivers that it created. Tests run
+ * in Chrome, unless the class selects another browser with TestBrowser.
+ * 
  * @author wqian94
  */
 public abstract class AbstractAuoTest {
-    private static AuoServer server;
+    private static final Map<Class<?>, Environment> environments =
+            new ConcurrentHashMap<>(); // The environment of each running test class.
+    
+    @ClassRule
+    public static final TestRule environment = (base, description) -> new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+            final Class<?> testClass = description.getTestClass();
+            final Environment env = new Environment(getBrowser(testClass));
+            environments.put(testClass, env);
+            try {
+                base.evaluate();
+            } finally {
+                environments.remove(testClass);
+                env.terminate();
+            }
+        }
+    };
+    
+    @Rule
+    public final TestName testName = new TestName(); // The name of the running test.
+    
+    private final List<WebDriver> drivers = new LinkedList<>(); // Drivers made by this test.
     
-    @BeforeClass
-    public static void setUpClass() {
-        server = AuoServer.start("../lib/", 0); // Randomly-allocated port.
-        Web.initiate();
+    /**
+     * The server and Web environment shared by the tests of a class.
+     */
+    private static final class Environment {
+        private final AuoServer server; // The server that the tests load AuO from.
+        private final Web web; // The environment that the tests' browsers run in.
+        private final Browser browser; // The browser that the tests run in.
+        
+        /**
+         * Creates a new Environment, starting its server and Web environment.
+         * 
+         * @param browser
+         *            the browser that the tests run in. Only Chrome needs a display.
+         */
+        private Environment(final Browser browser) {
+            this.browser = browser;
+            this.server = AuoServer.startSecure("../lib/", 0); // Random port, self-signed.
+            try {
+                this.web = Browser.CHROME == browser ? Web.initiate() : Web.initiate(true);
+            } catch (RuntimeException exp) {
+                server.terminate();
+                throw exp;
+            }
+        }
+        
+        /**
+         * Tears down the server and Web environment.
+         */
+        private void terminate() {
+            try {
+                server.terminate();
+            } finally {
+                web.terminate();
+            }
+        }
     }
     
-    @AfterClass
-    public static void tearDownClass() {
-        server.terminate();
-        Web.terminate();
+    @Before
+    public void setUp() {
+        Log.setTestName(getClass().getSimpleName() + "." + testName.getMethodName());
     }
     
     @After
     public void tearDown() {
-        Web.endDrivers();
+        final Web web = getEnvironment().web;
+        synchronized (drivers) {
+            for (final WebDriver driver : drivers) {
+                web.release(driver);
+            }
+            drivers.clear();
+        }
+        Log.setDriverId(null);
+        Log.setTestName(null);
+    }
+    
+    /**
+     * Produces the browser that a test class runs in, as selected by its TestBrowser annotation.
+     * 
+     * @param testClass
+     *            the test class.
+     * @return The Browser to run the tests in, which is Chrome unless the class selects another.
+     */
+    private static Browser getBrowser(final Class<?> testClass) {
+        final TestBrowser selected = testClass.getAnnotation(TestBrowser.class);
+        return null == selected ? Browser.CHROME : selected.value();
+    }
+    
+    /**
+     * Produces the environment of this test's class.
+     * 
+     * @return The Environment of the running test class.
+     */
+    private Environment getEnvironment() {
+        final Environment env = environments.get(getClass());
+        if (null == env) {
+            throw new IllegalStateException("No environment is running for " + getClass());
+        }
+        return env;
     }
     
     /**
@@ -43,18 +142,24 @@ public abstract class AbstractAuoTest {
      * 
      * @return The currently-running AuoServer instance.
      */
-    protected static AuoServer getServer() {
-        return server;
+    protected AuoServer getServer() {
+        return getEnvironment().server;
     }
     
     /**
      * Produces a WebDriver that loads the AuO standalone project page and ensures that AuO is
-     * launched.
+     * launched. The driver is cleaned up after the test.
      * 
      * @return The WebDriver that was created, with the page loaded and AuO launched.
      */
     protected WebDriver getDriver() {
-        return Web.getDriver(Browser.CHROME, server.getURL() + "TEST", By.className("AuO"));
+        final Environment env = getEnvironment();
+        final WebDriver driver =
+                env.web.getDriver(env.browser, env.server.getURL() + "TEST", ".AuO");
+        synchronized (drivers) {
+            drivers.add(driver);
+        }
+        return driver;
     }
     
     @Test(expected = AssertionError.class)
@@ -0,0 +1,163 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Computer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * ConcurrentComputer
+ * 
+ * Runs test classes concurrently, and the tests within each class concurrently unless the class is
+ * marked Sequential. Unlike JUnit's ParallelComputer, the number of threads is bounded: classes
+ * run on one pool, and the tests of concurrent classes on another pool shared by every class.
+ * Tests never wait on each other, so the shared pool cannot deadlock.
+ * 
+ * This bounds the tests running at once, not the browsers open at once. The tests of a Sequential
+ * class run one at a time on its class thread, outside the shared pool, and each class's Web
+ * environment keeps up to two idle browsers per browser type between its tests. With t test
+ * threads, s running Sequential classes, and c running classes, up to t + s tests hold browsers,
+ * and up to 2c more browsers may be idle.
+ * 
+ * The main method runs the AuO suites with this computer, e.g. on a CI machine.
+ * 
+ * @author wqian94
+ */
+public final class ConcurrentComputer extends Computer {
+    private static final Class<?>[] SUITES = { AudioUITest.class, ControlsUITest.class,
+            MainUITest.class, SaveUITest.class, TitleBarTest.class, ZoomUITest.class };
+    
+    private final ExecutorService classPool; // Runs the test classes.
+    private final ExecutorService testPool; // Runs the tests of every class.
+    
+    /**
+     * Creates a new ConcurrentComputer. Its threads are daemons, so they need not be shut down.
+     * 
+     * @param classThreads
+     *            the most test classes to run at once.
+     * @param testThreads
+     *            the most tests to run at once, across all classes.
+     */
+    public ConcurrentComputer(final int classThreads, final int testThreads) {
+        this.classPool = Executors.newFixedThreadPool(classThreads, daemons("AuO-class-"));
+        this.testPool = Executors.newFixedThreadPool(testThreads, daemons("AuO-test-"));
+    }
+    
+    @Override
+    public Runner getSuite(final RunnerBuilder builder, final Class<?>[] classes)
+            throws InitializationError {
+        final Runner suite = super.getSuite(builder, classes);
+        if (suite instanceof ParentRunner) {
+            ((ParentRunner<?>) suite).setScheduler(new PoolScheduler(classPool));
+        }
+        return suite;
+    }
+    
+    @Override
+    protected Runner getRunner(final RunnerBuilder builder, final Class<?> testClass)
+            throws Throwable {
+        final Runner runner = super.getRunner(builder, testClass);
+        // Sequential classes keep the default scheduler, running their tests on the class thread.
+        if (runner instanceof ParentRunner && !testClass.isAnnotationPresent(Sequential.class)) {
+            ((ParentRunner<?>) runner).setScheduler(new PoolScheduler(testPool));
+        }
+        return runner;
+    }
+    
+    /**
+     * Runs the children of a runner on a pool, and waits for all of them to finish.
+     */
+    private static final class PoolScheduler implements RunnerScheduler {
+        private final ExecutorService pool; // The pool to run the children on.
+        private final List<Future<?>> children; // The children scheduled so far.
+        
+        /**
+         * Creates a new PoolScheduler.
+         * 
+         * @param pool
+         *            the pool to run the children on.
+         */
+        private PoolScheduler(final ExecutorService pool) {
+            this.pool = pool;
+            this.children = new ArrayList<>();
+        }
+        
+        @Override
+        public void schedule(final Runnable childStatement) {
+            children.add(pool.submit(childStatement));
+        }
+        
+        @Override
+        public void finished() {
+            boolean interrupted = false;
+            for (final Future<?> child : children) {
+                while (true) {
+                    try {
+                        child.get();
+                        break;
+                    } catch (InterruptedException exp) {
+                        interrupted = true;
+                    } catch (ExecutionException exp) {
+                        // Failures are reported to the notifier by the child itself.
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Produces a factory of daemon threads with numbered names.
+     * 
+     * @param prefix
+     *            the prefix of the names of the threads.
+     * @return A ThreadFactory.
+     */
+    private static ThreadFactory daemons(final String prefix) {
+        final AtomicInteger count = new AtomicInteger(0);
+        return (runnable) -> {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    /**
+     * Runs the AuO suites concurrently. The number of tests of concurrent classes run at once
+     * defaults to the number of processors, and can be set with -Dauo.test.threads; the number of
+     * classes run at once is the number of suites.
+     * 
+     * @param args
+     *            ignored.
+     */
+    public static void main(final String[] args) {
+        final int threads = Integer.getInteger("auo.test.threads",
+                Runtime.getRuntime().availableProcessors());
+        final Result result = JUnitCore.runClasses(
+                new ConcurrentComputer(SUITES.length, Math.max(1, threads)), SUITES);
+        for (final Failure failure : result.getFailures()) {
+            System.err.println(failure.getTestHeader());
+            System.err.println(failure.getTrace());
+        }
+        System.out.printf("Ran %d tests in %dms: %d failed, %d ignored.%n", result.getRunCount(),
+                result.getRunTime(), result.getFailureCount(), result.getIgnoreCount());
+        System.exit(result.wasSuccessful() ? 0 : 1);
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import org.junit.Test;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
+import client.DomSnapshot;
 import client.Web;
 
 /**
@@ -48,6 +49,9 @@ public class ControlsUITest extends AbstractAuoTest {
     private static final String playMessage = "Play";
     private static final String recordMessage = "Record";
     private static final String stopMessage = "Stop";
+    private static final int recordButton = 0; // Index of the record button.
+    private static final int playButton = 1; // Index of the play button.
+    private static final int stopButton = 2; // Index of the stop button.
     
     /**
      * Produces the WebElement corresponding to the record button.
@@ -57,7 +61,7 @@ public class ControlsUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the record button.
      */
     private WebElement getRecordButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(0);
+        return Web.cssSelects(driver, cssButtonSelector).get(recordButton);
     }
     
     /**
@@ -68,7 +72,7 @@ public class ControlsUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the play button.
      */
     private WebElement getPlayButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(1);
+        return Web.cssSelects(driver, cssButtonSelector).get(playButton);
     }
     
     /**
@@ -79,13 +83,43 @@ public class ControlsUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the stop button.
      */
     private WebElement getStopButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(2);
+        return Web.cssSelects(driver, cssButtonSelector).get(stopButton);
+    }
+    
+    /**
+     * Takes a snapshot of the state of every button, in one round trip to the browser.
+     * 
+     * @param driver
+     *            the WebDriver to take the snapshot in.
+     * @return The states of the buttons, in order.
+     */
+    private List<DomSnapshot.Element> getButtonStates(final WebDriver driver) {
+        return Web.snapshot(driver, cssButtonSelector).get(cssButtonSelector);
+    }
+    
+    /**
+     * Waits until a button becomes enabled or disabled, observing the page so that the wait ends
+     * as soon as it does.
+     * 
+     * @param driver
+     *            the WebDriver to wait on.
+     * @param button
+     *            the index of the button.
+     * @param enabled
+     *            whether to wait for the button to be enabled, rather than disabled.
+     * @param timeout
+     *            the timeout for the wait, in seconds.
+     */
+    private void awaitEnabled(final WebDriver driver, final int button, final boolean enabled,
+            final long timeout) {
+        Web.await(driver, timeout, "return document.querySelectorAll(arguments[0])[arguments[1]]"
+                + ".disabled !== arguments[2];", cssButtonSelector, button, enabled);
     }
     
     @Test
     public void testControlsButtonsExist() {
         final WebDriver driver = getDriver();
-        final List<WebElement> buttons = Web.cssSelects(driver, cssButtonSelector);
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
         
         assertEquals("expected exactly three buttons in the controls UI.", 3, buttons.size());
         
@@ -97,7 +131,7 @@ public class ControlsUITest extends AbstractAuoTest {
     @Test
     public void testRecordButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement record = getRecordButton(driver);
+        final DomSnapshot.Element record = getButtonStates(driver).get(recordButton);
         
         assertEquals("expected record button to display correct message in initial launch state.",
                 recordMessage, record.getText());
@@ -108,7 +142,7 @@ public class ControlsUITest extends AbstractAuoTest {
     @Test
     public void testPlayButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement play = getPlayButton(driver);
+        final DomSnapshot.Element play = getButtonStates(driver).get(playButton);
         
         assertEquals("expected play button to display correct message in initial launch state.",
                 playMessage, play.getText());
@@ -119,7 +153,7 @@ public class ControlsUITest extends AbstractAuoTest {
     @Test
     public void testStopButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement stop = getStopButton(driver);
+        final DomSnapshot.Element stop = getButtonStates(driver).get(stopButton);
         
         assertEquals("expected stop button to display correct message in initial launch state.",
                 stopMessage, stop.getText());
@@ -133,12 +167,14 @@ public class ControlsUITest extends AbstractAuoTest {
         
         getRecordButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertFalse("expected record button to be disabled in recording state.",
-                getRecordButton(driver).isEnabled());
+                buttons.get(recordButton).isEnabled());
         assertFalse("expected play button to be disabled in recording state.",
-                getPlayButton(driver).isEnabled());
+                buttons.get(playButton).isEnabled());
         assertTrue("expected stop button to be enabled in recording state.",
-                getStopButton(driver).isEnabled());
+                buttons.get(stopButton).isEnabled());
     }
     
     @Test
@@ -147,28 +183,26 @@ public class ControlsUITest extends AbstractAuoTest {
         
         getRecordButton(driver).click();
         
-        Web.test(driver, 1, (client) -> {
-            return !getRecordButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, recordButton, false, 1);
         
         getStopButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getRecordButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, recordButton, true, 5);
+        
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
         
         assertEquals("expected record button to display correct message in idle state.",
-                recordMessage, getRecordButton(driver).getText());
+                recordMessage, buttons.get(recordButton).getText());
         assertEquals("expected play button to display correct message in idle state.", playMessage,
-                getPlayButton(driver).getText());
+                buttons.get(playButton).getText());
         assertEquals("expected stop button to display correct message in idle state.", stopMessage,
-                getStopButton(driver).getText());
+                buttons.get(stopButton).getText());
         assertTrue("expected record button to be enabled in idle state.",
-                getRecordButton(driver).isEnabled());
+                buttons.get(recordButton).isEnabled());
         assertTrue("expected play button to be enabled in idle state.",
-                getPlayButton(driver).isEnabled());
+                buttons.get(playButton).isEnabled());
         assertFalse("expected stop button to be disabled in idle state.",
-                getStopButton(driver).isEnabled());
+                buttons.get(stopButton).isEnabled());
     }
     
     @Test
@@ -177,26 +211,24 @@ public class ControlsUITest extends AbstractAuoTest {
         
         getRecordButton(driver).click();
         
-        Web.test(driver, 1, (client) -> {
-            return !getRecordButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, recordButton, false, 1);
         
         Thread.sleep(1000); // 1-second recording.
         
         getStopButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getPlayButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, playButton, true, 5);
         
         getPlayButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertFalse("expected record button to be disabled in playback state.",
-                getRecordButton(driver).isEnabled());
+                buttons.get(recordButton).isEnabled());
         assertFalse("expected play button to be disabled in playback state.",
-                getPlayButton(driver).isEnabled());
+                buttons.get(playButton).isEnabled());
         assertTrue("expected stop button to be enabled in playback state.",
-                getStopButton(driver).isEnabled());
+                buttons.get(stopButton).isEnabled());
     }
     
     @Test
@@ -205,42 +237,36 @@ public class ControlsUITest extends AbstractAuoTest {
         
         getRecordButton(driver).click();
         
-        Web.test(driver, 1, (client) -> {
-            return !getRecordButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, recordButton, false, 1);
         
         Thread.sleep(1000); // 1-second recording.
         
         getStopButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getPlayButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, playButton, true, 5);
         
         getPlayButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getStopButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, stopButton, true, 5);
         
         getStopButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getPlayButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, playButton, true, 5);
+        
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
         
         assertEquals("expected record button to display correct message in idle state.",
-                recordMessage, getRecordButton(driver).getText());
+                recordMessage, buttons.get(recordButton).getText());
         assertEquals("expected play button to display correct message in idle state.", playMessage,
-                getPlayButton(driver).getText());
+                buttons.get(playButton).getText());
         assertEquals("expected stop button to display correct message in idle state.", stopMessage,
-                getStopButton(driver).getText());
+                buttons.get(stopButton).getText());
         assertTrue("expected record button to be enabled in idle state.",
-                getRecordButton(driver).isEnabled());
+                buttons.get(recordButton).isEnabled());
         assertTrue("expected play button to be enabled in idle state.",
-                getPlayButton(driver).isEnabled());
+                buttons.get(playButton).isEnabled());
         assertFalse("expected stop button to be disabled in idle state.",
-                getStopButton(driver).isEnabled());
+                buttons.get(stopButton).isEnabled());
     }
     
     @Test
@@ -249,39 +275,33 @@ public class ControlsUITest extends AbstractAuoTest {
         
         getRecordButton(driver).click();
         
-        Web.test(driver, 1, (client) -> {
-            return !getRecordButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, recordButton, false, 1);
         
         Thread.sleep(1000); // 1-second recording.
         
         getStopButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getPlayButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, playButton, true, 5);
         
         getPlayButton(driver).click();
         
-        Web.test(driver, 5, (client) -> {
-            return getStopButton(driver).isEnabled();
-        });
+        awaitEnabled(driver, stopButton, true, 5);
+        
+        awaitEnabled(driver, playButton, true, 5);
         
-        Web.test(driver, 5, (client) -> {
-            return getPlayButton(driver).isEnabled();
-        });
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
         
         assertEquals("expected record button to display correct message in idle state.",
-                recordMessage, getRecordButton(driver).getText());
+                recordMessage, buttons.get(recordButton).getText());
         assertEquals("expected play button to display correct message in idle state.", playMessage,
-                getPlayButton(driver).getText());
+                buttons.get(playButton).getText());
         assertEquals("expected stop button to display correct message in idle state.", stopMessage,
-                getStopButton(driver).getText());
+                buttons.get(stopButton).getText());
         assertTrue("expected record button to be enabled in idle state.",
-                getRecordButton(driver).isEnabled());
+                buttons.get(recordButton).isEnabled());
         assertTrue("expected play button to be enabled in idle state.",
-                getPlayButton(driver).isEnabled());
+                buttons.get(playButton).isEnabled());
         assertFalse("expected stop button to be disabled in idle state.",
-                getStopButton(driver).isEnabled());
+                buttons.get(stopButton).isEnabled());
     }
 }
\ No newline at end of file
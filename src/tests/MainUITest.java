@@ -4,15 +4,18 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 import org.openqa.selenium.WebDriver;
+import client.Browser;
 import client.Web;
 
 /**
  * MainUITest
  * 
- * Unit test suite for ensuring that the main UI framework is set up correctly.
+ * Unit test suite for ensuring that the main UI framework is set up correctly. Runs in HtmlUnit,
+ * since it only checks the structure of the page.
  * 
  * @author wqian94
  */
+@TestBrowser(Browser.HTMLUNIT)
 public class MainUITest extends AbstractAuoTest {
     /**
      * @formatter:off
@@ -1,23 +1,32 @@
 package tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.List;
 
 import org.junit.Test;
 import org.openqa.selenium.Alert;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.Select;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import client.Web;
+import server.AudioAnalysis;
 import server.AuoServer;
+import server.SaveRecord;
 
 /**
  * SaveUITest
  * 
- * Unit test suite for ensuring that the save UI is set up and receives messages correctly.
+ * Unit test suite for ensuring that the save UI is set up and receives messages correctly. Tests
+ * run one at a time, since they inspect the saves received by the shared server.
  * 
  * @author wqian94
  */
+@Sequential
 public class SaveUITest extends AbstractAuoTest {
     /**
      * @formatter:off
@@ -30,6 +39,10 @@ public class SaveUITest extends AbstractAuoTest {
      * - Check that the save button is enabled and displays the correct label during idle state.
      * - Check that clicking the save button produces the correct alert message response from the
      *   server.
+     * - Check that the server receives the whole, non-empty recording when the save button is
+     *   clicked.
+     * - Check that a WAV recording received by the server is as long as the time spent recording,
+     *   if AuO offers WAV as a save format.
      * 
      * @formatter:on
      */
@@ -85,9 +98,8 @@ public class SaveUITest extends AbstractAuoTest {
         Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(0).click(); // Record button.
         Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(2).click(); // Stop button.
         
-        Web.test(driver, 5, (client) -> {
-            return Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").isEnabled();
-        });
+        Web.await(driver, 5, "return !document.querySelector(arguments[0]).disabled;",
+                ".AuO .auo-save-ui .auo-save-button");
         
         assertTrue("expected save button to be enabled in idle state.",
                 Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").isEnabled());
@@ -102,9 +114,8 @@ public class SaveUITest extends AbstractAuoTest {
         Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(0).click(); // Record button.
         Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(2).click(); // Stop button.
         
-        Web.test(driver, 5, (client) -> {
-            return Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").isEnabled();
-        });
+        Web.await(driver, 5, "return !document.querySelector(arguments[0]).disabled;",
+                ".AuO .auo-save-ui .auo-save-button");
         
         Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").click();
         
@@ -117,4 +128,61 @@ public class SaveUITest extends AbstractAuoTest {
         
         alert.accept();
     }
+    
+    @Test
+    public void testSaveServerReceivesRecording() {
+        final WebDriver driver = getDriver();
+        final int savesBefore = getServer().getSaves().size();
+        
+        Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(0).click(); // Record button.
+        Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(2).click(); // Stop button.
+        
+        Web.await(driver, 5, "return !document.querySelector(arguments[0]).disabled;",
+                ".AuO .auo-save-ui .auo-save-button");
+        
+        Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").click();
+        
+        new WebDriverWait(driver, 1, 100).until(ExpectedConditions.alertIsPresent());
+        driver.switchTo().alert().accept();
+        
+        final List<SaveRecord> saves = getServer().getSaves();
+        assertTrue("expected server to record the save.", saves.size() > savesBefore);
+        assertNotEquals("expected saved recording to be non-empty.", 0,
+                saves.get(saves.size() - 1).getBytes());
+    }
+    
+    @Test
+    public void testSaveServerAnalyzesWavRecording() throws InterruptedException {
+        final WebDriver driver = getDriver();
+        
+        final Select formats =
+                new Select(Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-options"));
+        WebElement wavOption = null;
+        for (final WebElement option : formats.getOptions()) {
+            if (option.getText().toLowerCase().contains("wav")) {
+                wavOption = option;
+            }
+        }
+        assumeTrue("expected AuO to offer WAV as a save format.", null != wavOption);
+        wavOption.click();
+        
+        Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(0).click(); // Record button.
+        Web.await(driver, 1, "return document.querySelector(arguments[0]).disabled;",
+                ".AuO .auo-controls-ui > button"); // Record button.
+        Thread.sleep(2000); // 2-second recording.
+        Web.cssSelects(driver, ".AuO .auo-controls-ui > button").get(2).click(); // Stop button.
+        
+        Web.await(driver, 5, "return !document.querySelector(arguments[0]).disabled;",
+                ".AuO .auo-save-ui .auo-save-button");
+        
+        Web.cssSelect(driver, ".AuO .auo-save-ui .auo-save-button").click();
+        
+        new WebDriverWait(driver, 5, 100).until(ExpectedConditions.alertIsPresent());
+        driver.switchTo().alert().accept();
+        
+        final AudioAnalysis analysis = getServer().getLastSave().getAnalysis();
+        assertNotNull("expected server to decode the saved WAV recording.", analysis);
+        assertEquals("expected saved recording to last as long as the recording.", 2.0,
+                analysis.getDurationSeconds(), 0.5);
+    }
 }
\ No newline at end of file
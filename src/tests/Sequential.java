@@ -0,0 +1,22 @@
+package tests;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sequential
+ * 
+ * Marks a test class whose tests must not run concurrently with each other, e.g. because they
+ * inspect state on the shared server that other tests would change. The class may still run
+ * concurrently with other classes, since each class has its own server.
+ * 
+ * @author wqian94
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Sequential {
+}
@@ -0,0 +1,30 @@
+package tests;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import client.Browser;
+
+/**
+ * TestBrowser
+ * 
+ * Selects the browser that a test class runs in, which is Chrome for classes without it. Classes
+ * that only check the structure of the page, and need no real media stack, can run in HTMLUNIT,
+ * which runs in-process and so starts in milliseconds rather than seconds.
+ * 
+ * @author wqian94
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TestBrowser {
+    /**
+     * Produces the browser to run the test class in.
+     * 
+     * @return A Browser.
+     */
+    Browser value();
+}
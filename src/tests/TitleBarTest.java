@@ -6,15 +6,18 @@ import java.util.Collections;
 
 import org.junit.Test;
 import org.openqa.selenium.WebDriver;
+import client.Browser;
 import client.Web;
 
 /**
  * TitleBarTest
  * 
- * Unit test suite for ensuring that the title bar is set up correctly and works as expected.
+ * Unit test suite for ensuring that the title bar is set up correctly and works as expected. Runs
+ * in HtmlUnit, since it only checks the structure of the page.
  * 
  * @author wqian94
  */
+@TestBrowser(Browser.HTMLUNIT)
 public class TitleBarTest extends AbstractAuoTest {
     /**
      * @formatter:off
@@ -7,6 +7,7 @@ import java.util.List;
 import org.junit.Test;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
+import client.DomSnapshot;
 import client.Web;
 
 /**
@@ -47,6 +48,9 @@ public class ZoomUITest extends AbstractAuoTest {
     private static final String zoomInMessage = "Zoom in";
     private static final String zoomOutMessage = "Zoom out";
     private static final String zoomResetMessage = "Zoom reset";
+    private static final int zoomInButton = 0; // Index of the zoom in button.
+    private static final int zoomOutButton = 1; // Index of the zoom out button.
+    private static final int zoomResetButton = 2; // Index of the zoom reset button.
     
     /**
      * Produces the WebElement corresponding to the zoom in button.
@@ -56,7 +60,7 @@ public class ZoomUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the zoom in button.
      */
     private WebElement getZoomInButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(0);
+        return Web.cssSelects(driver, cssButtonSelector).get(zoomInButton);
     }
     
     /**
@@ -67,7 +71,7 @@ public class ZoomUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the zoom out button.
      */
     private WebElement getZoomOutButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(1);
+        return Web.cssSelects(driver, cssButtonSelector).get(zoomOutButton);
     }
     
     /**
@@ -78,13 +82,24 @@ public class ZoomUITest extends AbstractAuoTest {
      * @return The WebElement that corresponds to the zoom reset button.
      */
     private WebElement getZoomResetButton(final WebDriver driver) {
-        return Web.cssSelects(driver, cssButtonSelector).get(2);
+        return Web.cssSelects(driver, cssButtonSelector).get(zoomResetButton);
+    }
+    
+    /**
+     * Takes a snapshot of the state of every button, in one round trip to the browser.
+     * 
+     * @param driver
+     *            the WebDriver to take the snapshot in.
+     * @return The states of the buttons, in order.
+     */
+    private List<DomSnapshot.Element> getButtonStates(final WebDriver driver) {
+        return Web.snapshot(driver, cssButtonSelector).get(cssButtonSelector);
     }
     
     @Test
     public void testZoomButtonsExist() {
         final WebDriver driver = getDriver();
-        final List<WebElement> buttons = Web.cssSelects(driver, cssButtonSelector);
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
         
         assertEquals("expected exactly three buttons in the controls UI.", 3, buttons.size());
         
@@ -96,7 +111,7 @@ public class ZoomUITest extends AbstractAuoTest {
     @Test
     public void testZoomInButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement zoomIn = getZoomInButton(driver);
+        final DomSnapshot.Element zoomIn = getButtonStates(driver).get(zoomInButton);
         
         assertEquals("expected zoom in button to display correct message in initial launch state.",
                 zoomInMessage, zoomIn.getText());
@@ -107,7 +122,7 @@ public class ZoomUITest extends AbstractAuoTest {
     @Test
     public void testZoomOutButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement zoomOut = getZoomOutButton(driver);
+        final DomSnapshot.Element zoomOut = getButtonStates(driver).get(zoomOutButton);
         
         assertEquals("expected zoom out button to display correct message in initial launch state.",
                 zoomOutMessage, zoomOut.getText());
@@ -118,7 +133,7 @@ public class ZoomUITest extends AbstractAuoTest {
     @Test
     public void testZoomResetButtonInitialLaunchState() {
         final WebDriver driver = getDriver();
-        final WebElement zoomReset = getZoomResetButton(driver);
+        final DomSnapshot.Element zoomReset = getButtonStates(driver).get(zoomResetButton);
         
         assertEquals(
                 "expected zoom reset button to display correct message in initial launch state.",
@@ -133,12 +148,14 @@ public class ZoomUITest extends AbstractAuoTest {
         
         getZoomInButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in zoomed in state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertTrue("expected zoom out button to be enabled in zoomed in state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in zoomed in state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -150,12 +167,14 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomInButton(driver).click();
         getZoomOutButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in more zoomed in state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertTrue("expected zoom out button to be enabled in more zoomed in state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in more zoomed in state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -167,12 +186,14 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomInButton(driver).click();
         getZoomResetButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in resetted zoom state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertFalse("expected zoom out button to be disabled in resetted zoom state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in resetted zoom state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -186,12 +207,14 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomOutButton(driver).click();
         getZoomOutButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in equally zoomed in and out state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertFalse("expected zoom out button to be disabled in equally zoomed in and out state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in equally zoomed in and out state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -204,12 +227,14 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomOutButton(driver).click();
         getZoomResetButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in zoomed out then resetted state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertFalse("expected zoom out button to be disabled in zoomed out then resetted state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in zoomed out then resetted state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -220,12 +245,14 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomOutButton(driver).click();
         getZoomInButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in zoom in-out-in state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertTrue("expected zoom out button to be enabled in zoom in-out-in state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in zoom in-out-in state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
     
     @Test
@@ -236,11 +263,13 @@ public class ZoomUITest extends AbstractAuoTest {
         getZoomResetButton(driver).click();
         getZoomInButton(driver).click();
         
+        final List<DomSnapshot.Element> buttons = getButtonStates(driver);
+        
         assertTrue("expected zoom in button to be enabled in zoom in-reset-in state.",
-                getZoomInButton(driver).isEnabled());
+                buttons.get(zoomInButton).isEnabled());
         assertTrue("expected zoom out button to be enabled in zoom in-reset-in state.",
-                getZoomOutButton(driver).isEnabled());
+                buttons.get(zoomOutButton).isEnabled());
         assertTrue("expected zoom reset button to be enabled in zoom in-reset-in state.",
-                getZoomResetButton(driver).isEnabled());
+                buttons.get(zoomResetButton).isEnabled());
     }
 }
\ No newline at end of file